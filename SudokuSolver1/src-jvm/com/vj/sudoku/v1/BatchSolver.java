@@ -0,0 +1,431 @@
+package com.vj.sudoku.v1;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Command line batch mode for the solvers.  Streams puzzles, one per line,
+ * from the named files (memory-mapped, see MappedPuzzleReader) or from
+ * stdin, solves each with the chosen engine, and
+ * writes one 81 character result per puzzle (a character per cell on larger
+ * boards, see Geometry), '0' marking cells the engine
+ * could not fill.  Puzzles found to be invalid are echoed back unchanged.  A
+ * summary with the puzzles/sec rate goes to stderr at the end of the run.
+ * <br><br>
+ * Usage: BatchSolver [-e engine] [-b box] [-t threads] [-w window] [-c size]
+ * [-g] [-s] [-p] [-o outfile] [-q] [file ...]
+ * <ul>
+ * <li>-e the engine to solve with: "search" (the default) runs the rules and
+ * branches when they stall, "parallel" spreads that search for each puzzle
+ * over all cores, "rules" runs the JasperSolver rules alone, and "dlx" solves
+ * with Dancing Links, and "wide" solves boards of any size with WideSolver
+ * <li>-b the puzzles are box*box by box*box, 2 to 7 (default 3); for any
+ * other than 3 the engine is "wide", and -g does not apply
+ * <li>-t solve on this many worker threads, each with its own engine; 0 means
+ * one per core.  Results are still written in input order.  The default, 1,
+ * solves on the calling thread.
+ * <li>-w with -t, the most puzzles in flight at once (default 64 per thread)
+ * <li>-c keep the results of the last size puzzles or so in a SolutionCache
+ * shared by all threads, so repeats, and copies of earlier puzzles moved by
+ * Sudoku's symmetries, are not solved again; 9x9 only.  The cache's hits go
+ * to stderr after the summary.
+ * <li>-g grade each puzzle instead of solving it, writing the puzzle, its
+ * DifficultyGrader score and the uses of each tier of rules; grading is
+ * done on the calling thread, so not with -t
+ * <li>-s after the summary, print what each rule did and the time it took
+ * (the search and rules engines only)
+ * <li>-p report the puzzles done so far on stderr, once a second
+ * <li>-o write results to outfile instead of stdout
+ * <li>-q do not write results, just the summary
+ * </ul>
+ * Blank lines and lines starting with '#' are skipped.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class BatchSolver {
+
+    private final SudokuEngine _engine;
+    private final ParallelBatchSolver _parallel;
+    private final PuzzleWriter _out;
+    private DifficultyGrader _grader = null;
+    private ProgressReporter _progress = null;
+
+    private int _puzzles = 0;
+    private int _solved = 0;
+    private int _unsolved = 0;
+    private int _invalid = 0;
+    private int _skipped = 0;
+    private long _steps = 0;
+
+    private Geometry _geometry = Geometry.STANDARD;
+    private int[] _puzzle = new int[PuzzleFormat.CELLS];
+
+    /**
+     * @param engine what to solve with
+     * @param out where to write results, or null to only count them
+     */
+    public BatchSolver(SudokuEngine engine, PuzzleWriter out) {
+        _engine = engine;
+        _parallel = null;
+        _out = out;
+    }
+
+    /**
+     * Solve on the threads of executor instead of the calling thread.
+     * Call finish() once the last puzzle has been read.
+     *
+     * @param executor runs the solves
+     * @param factory builds one engine per worker thread
+     * @param window the most puzzles in flight at once
+     * @param out where to write results, or null to only count them
+     */
+    public BatchSolver(ExecutorService executor, Supplier<SudokuEngine> factory,
+            int window, PuzzleWriter out) {
+        _engine = null;
+        _parallel = new ParallelBatchSolver(executor, factory, window, this::record);
+        _out = out;
+    }
+
+    /**
+     * @param name "search", "parallel", "rules", "dlx" or "wide"
+     * @param geometry the size of the puzzles
+     * @return a new engine of that name, or null if there is none for
+     * puzzles of that size
+     */
+    static SudokuEngine engine(String name, Geometry geometry) {
+        return engine(name, geometry, null);
+    }
+
+    /**
+     * @param name "search", "parallel", "rules", "dlx" or "wide"
+     * @param geometry the size of the puzzles
+     * @param pool for "parallel" to search on, or null for the common pool
+     * @return a new engine of that name, or null if there is none for
+     * puzzles of that size
+     */
+    static SudokuEngine engine(String name, Geometry geometry, ForkJoinPool pool) {
+        if (name.equals("wide"))
+            return new WideSolver(geometry);
+        if (geometry != Geometry.STANDARD)
+            return null;
+        if (name.equals("search"))
+            return new SearchSolver();
+        if (name.equals("parallel"))
+            return pool != null ? new ParallelSearchSolver(pool) : new ParallelSearchSolver();
+        if (name.equals("rules"))
+            return new RuleEngine();
+        if (name.equals("dlx"))
+            return new DancingLinksSolver();
+        return null;
+    }
+
+    /**
+     * Count into a new RuleStats, added to all, if the engine runs the rules.
+     *
+     * @param engine
+     * @param all - where to keep the stats, or null for none
+     * @return engine
+     */
+    static SudokuEngine withStats(SudokuEngine engine, List<RuleStats> all) {
+        if (all == null)
+            return engine;
+        RuleStats stats = new RuleStats();
+        if (engine instanceof SearchSolver)
+            ((SearchSolver) engine).setStats(stats);
+        else if (engine instanceof RuleEngine)
+            ((RuleEngine) engine).setStats(stats);
+        else
+            return engine;
+        all.add(stats);
+        return engine;
+    }
+
+    /**
+     * @param engine
+     * @param cache - to look puzzles up in first, or null for none
+     * @return engine, or an engine that uses cache before it
+     */
+    static SudokuEngine withCache(SudokuEngine engine, SolutionCache cache) {
+        return cache == null ? engine : cache.wrap(engine);
+    }
+
+    /**
+     * Solve every puzzle read from in.
+     *
+     * @param in
+     * @param name used when reporting lines that are not puzzles
+     * @throws IOException
+     */
+    public void solveAll(BufferedReader in, String name) throws IOException {
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+            if (!PuzzleFormat.parse(line, _geometry, _puzzle)) {
+                _skipped++;
+                System.err.println(name + ":" + lineNo + ": not a puzzle, skipped");
+                continue;
+            }
+            solve(_puzzle);
+        }
+    }
+
+    /**
+     * Solve every puzzle in a mapped file.
+     *
+     * @param in
+     * @param name used when reporting lines that are not puzzles
+     * @throws IOException
+     */
+    public void solveAll(MappedPuzzleReader in, String name) throws IOException {
+        int status;
+        while ((status = in.read(_puzzle)) != MappedPuzzleReader.END) {
+            if (status == MappedPuzzleReader.NOT_A_PUZZLE) {
+                _skipped++;
+                System.err.println(name + ":" + in.getLineNumber() + ": not a puzzle, skipped");
+                continue;
+            }
+            solve(_puzzle);
+        }
+    }
+
+    /**
+     * Read puzzles of another size than 9x9.
+     *
+     * @param geometry
+     */
+    public void setGeometry(Geometry geometry) {
+        _geometry = geometry;
+        _puzzle = new int[geometry.getCells()];
+    }
+
+    /**
+     * @param progress - told the number of puzzles done, or null
+     */
+    public void setProgress(ProgressReporter progress) {
+        _progress = progress;
+    }
+
+    /**
+     * Grade puzzles instead of solving them.  Grading is done on the
+     * calling thread.
+     */
+    public void setGrading() {
+        _grader = new DifficultyGrader();
+    }
+
+    private void solve(int[] puzzle) throws IOException {
+        if (_grader != null)
+            grade(puzzle);
+        else if (_parallel != null)
+            _parallel.submit(puzzle.clone());
+        else
+            record(_engine.solve(puzzle));
+    }
+
+    private void grade(int[] puzzle) throws IOException {
+        _puzzles++;
+        DifficultyGrader.Grade grade = _grader.grade(puzzle);
+        if (grade.isValid())
+            _solved++;
+        else
+            _invalid++;
+        if (_progress != null)
+            _progress.report(_puzzles);
+
+        if (_out != null) {
+            _out.write(puzzle);
+            _out.write(' ');
+            _out.write(grade.toString());
+            _out.write('\n');
+        }
+    }
+
+    /**
+     * Wait for any puzzles still being solved and write their results.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (_parallel != null)
+            _parallel.finish();
+    }
+
+    private void record(SolveResult result) throws IOException {
+        _puzzles++;
+        _steps += result.getSteps();
+        switch (result.getStatus()) {
+        case SOLVED:   _solved++;   break;
+        case UNSOLVED: _unsolved++; break;
+        case INVALID:  _invalid++;  break;
+        }
+        if (_progress != null)
+            _progress.report(_puzzles);
+
+        if (_out != null) {
+            _out.write(result.getGrid());
+            _out.write('\n');
+        }
+    }
+
+    /**
+     * @param nanos how long the run took
+     * @return a one line summary of the run
+     */
+    public String summary(long nanos) {
+        double secs = nanos / 1e9;
+        return String.format("%d puzzles: %d solved, %d unsolved, %d invalid, %d skipped;"
+                + " %d steps; %.3f s, %.0f puzzles/sec",
+                _puzzles, _solved, _unsolved, _invalid, _skipped,
+                _steps, secs, secs > 0 ? _puzzles / secs : 0.0);
+    }
+
+    private static void usage() {
+        System.err.println("usage: BatchSolver [-e search|parallel|rules|dlx|wide] [-b box]"
+                + " [-t threads] [-w window] [-c size] [-g] [-s] [-p] [-o outfile] [-q]"
+                + " [file ...]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String engineName = null;
+        int box = 3;
+        String outName = null;
+        boolean quiet = false;
+        int threads = 1;
+        int window = 0;
+        int cacheSize = 0;
+        boolean grading = false;
+        List<RuleStats> stats = null;
+        boolean progress = false;
+        int argn = 0;
+        try {
+            for (; argn < args.length && args[argn].startsWith("-") && args[argn].length() > 1;
+                    argn++) {
+                if (args[argn].equals("-e") && argn + 1 < args.length)
+                    engineName = args[++argn];
+                else if (args[argn].equals("-b") && argn + 1 < args.length)
+                    box = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-t") && argn + 1 < args.length)
+                    threads = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-w") && argn + 1 < args.length)
+                    window = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-c") && argn + 1 < args.length)
+                    cacheSize = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-o") && argn + 1 < args.length)
+                    outName = args[++argn];
+                else if (args[argn].equals("-g"))
+                    grading = true;
+                else if (args[argn].equals("-s"))
+                    stats = Collections.synchronizedList(new ArrayList<RuleStats>());
+                else if (args[argn].equals("-p"))
+                    progress = true;
+                else if (args[argn].equals("-q"))
+                    quiet = true;
+                else {
+                    usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (box < Geometry.MIN_BOX || box > Geometry.MAX_BOX)
+            usage();
+        final Geometry geometry = Geometry.of(box);
+        final String name = engineName != null ? engineName
+                : geometry == Geometry.STANDARD ? "search" : "wide";
+        final List<RuleStats> allStats = stats;
+        if (engine(name, geometry) == null || threads < 0 || window < 0 || cacheSize < 0
+                || (grading && threads != 1)
+                || ((grading || cacheSize > 0) && geometry != Geometry.STANDARD))
+            usage();
+        // results are kept under the puzzle and under its canonical form
+        final SolutionCache cache = cacheSize > 0 ? new SolutionCache(cacheSize * 2) : null;
+
+        PuzzleWriter out = null;
+        if (!quiet)
+            out = outName == null ? PuzzleWriter.toStdout()
+                    : PuzzleWriter.toFile(Paths.get(outName));
+
+        ForkJoinPool pool = null;
+        BatchSolver batch;
+        if (threads == 1) {
+            batch = new BatchSolver(withCache(withStats(engine(name, geometry), allStats),
+                    cache), out);
+        } else {
+            // "parallel" searches on the batch's own workers, so -t bounds
+            // the threads however the searches fan out
+            final ForkJoinPool workers = ParallelBatchSolver.newPool(threads);
+            pool = workers;
+            batch = new BatchSolver(pool,
+                    () -> withCache(withStats(engine(name, geometry, workers), allStats), cache),
+                    window > 0 ? window : pool.getParallelism() * 64, out);
+        }
+        batch.setGeometry(geometry);
+        if (grading)
+            batch.setGrading();
+        final long start = System.nanoTime();
+        ExecutorService printer = null;
+        ProgressReporter reporter = null;
+        if (progress) {
+            printer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter = new ProgressReporter(printer, done -> {
+                double secs = (System.nanoTime() - start) / 1e9;
+                System.err.println(String.format("%d puzzles; %.1f s, %.0f puzzles/sec",
+                        done, secs, done / secs));
+            }, 1000, 64);
+            batch.setProgress(reporter);
+        }
+        if (argn == args.length) {
+            batch.solveAll(new BufferedReader(new InputStreamReader(System.in,
+                    StandardCharsets.US_ASCII), 1 << 16), "stdin");
+        } else {
+            for (; argn < args.length; argn++) {
+                try (MappedPuzzleReader in = new MappedPuzzleReader(Paths.get(args[argn]),
+                        geometry)) {
+                    batch.solveAll(in, args[argn]);
+                }
+            }
+        }
+        batch.finish();
+        if (reporter != null) {
+            // the final count, before the summary
+            reporter.flush();
+            printer.shutdown();
+            printer.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        if (pool != null)
+            pool.shutdown();
+        if (out != null)
+            out.close();
+        System.err.println(batch.summary(System.nanoTime() - start));
+        if (cache != null)
+            System.err.println(cache);
+        if (allStats != null) {
+            RuleStats total = new RuleStats();
+            synchronized (allStats) {
+                for (RuleStats each : allStats)
+                    total.add(each.snapshot());
+            }
+            System.err.print(total);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.vj.sudoku.v1;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates puzzles with three stages running at once, each on its own
+ * threads and joined by bounded queues:
+ * <ol>
+ * <li>fill: random solved grids (PuzzleGenerator.fillGrid)
+ * <li>remove: clues blanked down to the target with uniqueness checks
+ * (PuzzleGenerator.removeClues), by far the costliest stage
+ * <li>grade: each puzzle is graded (DifficultyGrader) and those outside the
+ * wanted range of scores are dropped
+ * </ol>
+ * A full queue blocks the stage feeding it, so no stage runs more than a
+ * queue length ahead of the next.  Puzzles come out in the order they are
+ * graded, not the order their grids were filled.  The remove threads share
+ * one TranspositionTable, so a dead end found by one uniqueness check is
+ * skipped by the later checks of every thread.
+ * <br><br>
+ * Usage: GeneratorPipeline [-n count] [-c clues] [-s symmetry] [-g min-max]
+ * [-t threads] [-r seed] [-o outfile]
+ * <ul>
+ * <li>-n how many puzzles to make (default 100)
+ * <li>-c the number of clues to aim for (default 24)
+ * <li>-s none, rotational (the default), mirror or diagonal
+ * <li>-g keep only puzzles whose score is in min-max
+ * <li>-t threads for the remove stage (default one per core); fill and
+ * grade get a quarter as many
+ * <li>-r seed the random numbers, for repeatable grids per thread
+ * <li>-o write puzzles to outfile instead of stdout
+ * </ul>
+ * Each output line is the puzzle, its clue count and its grade: the score
+ * followed by the uses of each tier of rules.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class GeneratorPipeline {
+
+    // 2M of dead ends, shared by the remove threads
+    private static final int TABLE_BITS = 18;
+
+    /** Receives each puzzle that passes the grade stage. */
+    public interface Sink {
+        void accept(int[] puzzle, DifficultyGrader.Grade grade) throws IOException;
+    }
+
+    // a puzzle and its grade, on its way from the grade stage to the caller
+    private static final class Graded {
+        final int[] puzzle;
+        final DifficultyGrader.Grade grade;
+
+        Graded(int[] puzzle, DifficultyGrader.Grade grade) {
+            this.puzzle = puzzle;
+            this.grade = grade;
+        }
+    }
+
+    private final int _clues;
+    private final PuzzleGenerator.Symmetry _symmetry;
+    private final long _minGrade;
+    private final long _maxGrade;
+    private final int _fillThreads;
+    private final int _removeThreads;
+    private final int _gradeThreads;
+    private final int _queueSize;
+    private final Long _seed;
+
+    /**
+     * @param clues the number of clues to aim for
+     * @param symmetry
+     * @param minGrade the lowest score kept
+     * @param maxGrade the highest score kept
+     * @param removeThreads threads for the remove stage
+     * @param seed seeds the random numbers, or null for unseeded
+     */
+    public GeneratorPipeline(int clues, PuzzleGenerator.Symmetry symmetry,
+            long minGrade, long maxGrade, int removeThreads, Long seed) {
+        _clues = clues;
+        _symmetry = symmetry;
+        _minGrade = minGrade;
+        _maxGrade = maxGrade;
+        _removeThreads = Math.max(1, removeThreads);
+        _fillThreads = Math.max(1, _removeThreads / 4);
+        _gradeThreads = Math.max(1, _removeThreads / 4);
+        _queueSize = 4 * _removeThreads;
+        _seed = seed;
+    }
+
+    private Random random(int worker) {
+        return _seed == null ? ThreadLocalRandom.current() : new Random(_seed + worker);
+    }
+
+    /**
+     * Generate puzzles until count have passed the grade stage, then stop
+     * every stage.
+     *
+     * @param count
+     * @param sink called on this thread with each puzzle
+     * @throws IOException from the sink
+     * @throws InterruptedException
+     */
+    public void run(int count, Sink sink) throws IOException, InterruptedException {
+        final BlockingQueue<int[]> grids = new ArrayBlockingQueue<int[]>(_queueSize);
+        final BlockingQueue<int[]> puzzles = new ArrayBlockingQueue<int[]>(_queueSize);
+        final BlockingQueue<Graded> graded = new ArrayBlockingQueue<Graded>(_queueSize);
+        final TranspositionTable table = new TranspositionTable(TABLE_BITS);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        int worker = 0;
+        for (int nn = 0; nn < _fillThreads; nn++) {
+            final int id = worker++;
+            threads.add(new Thread(() -> {
+                PuzzleGenerator gen = new PuzzleGenerator(random(id));
+                try {
+                    while (true)
+                        grids.put(gen.fillGrid());
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "fill-" + nn));
+        }
+        for (int nn = 0; nn < _removeThreads; nn++) {
+            final int id = worker++;
+            threads.add(new Thread(() -> {
+                PuzzleGenerator gen = new PuzzleGenerator(random(id));
+                gen.setTable(table);
+                try {
+                    while (true)
+                        puzzles.put(gen.removeClues(grids.take(), _clues, _symmetry));
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "remove-" + nn));
+        }
+        for (int nn = 0; nn < _gradeThreads; nn++) {
+            threads.add(new Thread(() -> {
+                DifficultyGrader grader = new DifficultyGrader();
+                try {
+                    while (true) {
+                        int[] puzzle = puzzles.take();
+                        DifficultyGrader.Grade grade = grader.grade(puzzle);
+                        long score = grade.getScore();
+                        if (score >= _minGrade && score <= _maxGrade)
+                            graded.put(new Graded(puzzle, grade));
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "grade-" + nn));
+        }
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            for (int nn = 0; nn < count; nn++) {
+                Graded next = graded.take();
+                sink.accept(next.puzzle, next.grade);
+            }
+        } finally {
+            for (Thread thread : threads)
+                thread.interrupt();
+            for (Thread thread : threads)
+                thread.join();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: GeneratorPipeline [-n count] [-c clues]"
+                + " [-s none|rotational|mirror|diagonal] [-g min-max] [-t threads]"
+                + " [-r seed] [-o outfile]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = 100;
+        int clues = 24;
+        PuzzleGenerator.Symmetry symmetry = PuzzleGenerator.Symmetry.ROTATIONAL;
+        long minGrade = 0;
+        long maxGrade = Long.MAX_VALUE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Long seed = null;
+        String outName = null;
+        try {
+            for (int argn = 0; argn < args.length; argn++) {
+                if (args[argn].equals("-n") && argn + 1 < args.length)
+                    count = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-c") && argn + 1 < args.length)
+                    clues = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-s") && argn + 1 < args.length)
+                    symmetry = PuzzleGenerator.Symmetry.valueOf(args[++argn].toUpperCase());
+                else if (args[argn].equals("-g") && argn + 1 < args.length) {
+                    String[] range = args[++argn].split("-", 2);
+                    minGrade = Long.parseLong(range[0]);
+                    maxGrade = range.length > 1 && range[1].length() > 0
+                            ? Long.parseLong(range[1]) : Long.MAX_VALUE;
+                } else if (args[argn].equals("-t") && argn + 1 < args.length)
+                    threads = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-r") && argn + 1 < args.length)
+                    seed = Long.valueOf(args[++argn]);
+                else if (args[argn].equals("-o") && argn + 1 < args.length)
+                    outName = args[++argn];
+                else
+                    usage();
+            }
+        } catch (IllegalArgumentException e) {
+            usage();
+        }
+
+        final Writer out = new BufferedWriter(new OutputStreamWriter(outName == null
+                ? System.out : new FileOutputStream(outName), StandardCharsets.US_ASCII), 1 << 16);
+        final StringBuilder line = new StringBuilder();
+        GeneratorPipeline pipeline = new GeneratorPipeline(clues, symmetry,
+                minGrade, maxGrade, threads, seed);
+        long start = System.nanoTime();
+        pipeline.run(count, (puzzle, grade) -> {
+            line.setLength(0);
+            PuzzleFormat.format(puzzle, line);
+            line.append(' ').append(PuzzleGenerator.clues(puzzle));
+            line.append(' ').append(grade).append('\n');
+            out.append(line);
+        });
+        out.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("%d puzzles; %.3f s, %.0f puzzles/hour",
+                count, secs, count / secs * 3600));
+    }
+}
@@ -0,0 +1,138 @@
+package com.vj.sudoku.v1;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads puzzles, one per line, straight out of a memory-mapped file into a
+ * caller's int array, with no String or char[] per line.  The file is
+ * mapped a window at a time, so files of any size can be read; a line that
+ * runs past the end of a window is picked up again at the start of the next.
+ * <br><br>
+ * Lines are parsed as PuzzleFormat.parse does: the first 81 characters (or
+ * as many as the Geometry has cells) are the puzzle and anything after them
+ * is ignored.  Blank lines and lines starting with '#' are skipped, and
+ * '\r\n' line ends are accepted.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class MappedPuzzleReader implements Closeable {
+
+    /** read() found a puzzle */
+    public static final int PUZZLE = 1;
+    /** read() found a line that does not start with a puzzle */
+    public static final int NOT_A_PUZZLE = 0;
+    /** read() reached the end of the file */
+    public static final int END = -1;
+
+    private static final long WINDOW = 1L << 28;
+
+    private final Geometry _geometry;
+    private final FileChannel _channel;
+    private final long _size;
+    private MappedByteBuffer _map;
+    private long _base;
+    private int _pos;
+    private long _lineNo = 0;
+
+    /**
+     * @param path the file of 9x9 puzzles to read
+     * @throws IOException
+     */
+    public MappedPuzzleReader(Path path) throws IOException {
+        this(path, Geometry.STANDARD);
+    }
+
+    /**
+     * @param path the file to read
+     * @param geometry the size of the puzzles in it
+     * @throws IOException
+     */
+    public MappedPuzzleReader(Path path, Geometry geometry) throws IOException {
+        _geometry = geometry;
+        _channel = FileChannel.open(path, StandardOpenOption.READ);
+        _size = _channel.size();
+        mapAt(0);
+    }
+
+    private void mapAt(long offset) throws IOException {
+        _base = offset;
+        _map = _channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                Math.min(WINDOW, _size - offset));
+        _pos = 0;
+    }
+
+    /**
+     * Read the next puzzle, skipping blank and '#' lines.
+     *
+     * @param puzzle receives the values, 0 for blanks
+     * @return PUZZLE, NOT_A_PUZZLE (puzzle is then undefined) or END
+     * @throws IOException
+     */
+    public int read(int[] puzzle) throws IOException {
+        MappedByteBuffer map = _map;
+        while (true) {
+            int limit = map.limit();
+            int start = _pos;
+            if (start == limit) {
+                if (_base + limit == _size)
+                    return END;
+                mapAt(_base + start);
+                map = _map;
+                continue;
+            }
+
+            int end = start;
+            while (end < limit && map.get(end) != '\n')
+                end++;
+            if (end == limit && _base + limit < _size) {
+                // the line goes on in the next window
+                if (start == 0)
+                    throw new IOException("line " + (_lineNo + 1) + " is longer than "
+                            + WINDOW + " bytes");
+                mapAt(_base + start);
+                map = _map;
+                continue;
+            }
+
+            _lineNo++;
+            _pos = end < limit ? end + 1 : end;
+            int length = end - start;
+            if (length > 0 && map.get(end - 1) == '\r')
+                length--;
+            if (length == 0 || map.get(start) == '#')
+                continue;
+            return parse(map, start, length, puzzle) ? PUZZLE : NOT_A_PUZZLE;
+        }
+    }
+
+    private boolean parse(MappedByteBuffer map, int start, int length, int[] puzzle) {
+        Geometry geometry = _geometry;
+        int cells = geometry.getCells();
+        if (length < cells)
+            return false;
+        for (int cell = 0; cell < cells; cell++) {
+            int val = geometry.valueOf(map.get(start + cell));
+            if (val < 0)
+                return false;
+            puzzle[cell] = val;
+        }
+        return true;
+    }
+
+    /**
+     * @return the line number of the line last read
+     */
+    public long getLineNumber() {
+        return _lineNo;
+    }
+
+    public void close() throws IOException {
+        _channel.close();
+    }
+}
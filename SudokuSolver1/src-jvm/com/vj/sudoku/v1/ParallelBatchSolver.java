@@ -0,0 +1,134 @@
+package com.vj.sudoku.v1;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Solves a stream of puzzles on a pool of worker threads while handing the
+ * results back in input order.
+ * <br><br>
+ * Every worker thread builds its own engine from the factory the first time
+ * it runs a puzzle, so no solver state is shared between threads.  Results
+ * wait in a reorder window of at most window puzzles: once it is full,
+ * submit() blocks until the oldest puzzle is done and passes it to the sink.
+ * A straggling hard puzzle therefore holds up at most window results, and
+ * memory stays flat however long the corpus is.
+ * <br><br>
+ * Not thread safe: submit() and finish() are meant to be called from the one
+ * thread that reads the input, and the sink is only called from that thread.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class ParallelBatchSolver {
+
+    /** Receives results in input order. */
+    public interface Sink {
+        void accept(SolveResult result) throws IOException;
+    }
+
+    private final ExecutorService _executor;
+    private final ThreadLocal<SudokuEngine> _engines;
+    private final int _window;
+    private final Sink _sink;
+    private final ArrayDeque<Future<SolveResult>> _inFlight;
+
+    /**
+     * @param executor runs the solves
+     * @param factory builds one engine per worker thread
+     * @param window the most puzzles in flight at once
+     * @param sink receives the results in input order
+     */
+    public ParallelBatchSolver(ExecutorService executor, Supplier<SudokuEngine> factory,
+            int window, Sink sink) {
+        _executor = executor;
+        _engines = ThreadLocal.withInitial(factory);
+        _window = Math.max(1, window);
+        _sink = sink;
+        _inFlight = new ArrayDeque<Future<SolveResult>>(_window);
+    }
+
+    /**
+     * @param threads the number of worker threads, or 0 for one per core
+     * @return a ForkJoinPool with that many workers
+     */
+    public static ForkJoinPool newPool(int threads) {
+        return new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Queue a puzzle, first passing on the oldest result if the window is
+     * full.  The puzzle array must not be changed until its result is out.
+     *
+     * @param puzzle
+     * @throws IOException from the sink
+     */
+    public void submit(final int[] puzzle) throws IOException {
+        if (_inFlight.size() == _window)
+            emitOldest();
+        _inFlight.add(_executor.submit(() -> _engines.get().solve(puzzle)));
+    }
+
+    /**
+     * Pass on every result still in flight.
+     *
+     * @throws IOException from the sink
+     */
+    public void finish() throws IOException {
+        while (!_inFlight.isEmpty())
+            emitOldest();
+    }
+
+    private void emitOldest() throws IOException {
+        Future<SolveResult> oldest = _inFlight.poll();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    _sink.accept(oldest.get());
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("engine failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Solve a list of puzzles on a pool of worker threads.
+     *
+     * @param puzzles
+     * @param factory builds one engine per worker thread
+     * @param threads the number of worker threads, or 0 for one per core
+     * @return the results, in the same order as puzzles
+     */
+    public static List<SolveResult> solveAll(List<int[]> puzzles,
+            Supplier<SudokuEngine> factory, int threads) {
+        final List<SolveResult> results = new ArrayList<SolveResult>(puzzles.size());
+        ForkJoinPool pool = newPool(threads);
+        try {
+            ParallelBatchSolver batch = new ParallelBatchSolver(pool, factory,
+                    pool.getParallelism() * 64, results::add);
+            for (int[] puzzle : puzzles)
+                batch.submit(puzzle);
+            batch.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,267 @@
+package com.vj.sudoku.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SearchSolver search, with its subtrees spread over the workers of a
+ * ForkJoinPool, for single puzzles that need deep branching.
+ * <br><br>
+ * The search is split into tasks.  When the rules stall, a task checks
+ * whether its worker's queue is running low.  If it is, the task forks one
+ * child per value of the most constrained cell, so idle workers can steal
+ * them.  Otherwise it searches on by itself, depth first and undoing each
+ * value with the solver's trail, as SearchSolver does.  Every forked task
+ * gets its own copy of the solver state (_puzzle, _remains and the unit
+ * sets), so tasks never share anything but the result.
+ * <br><br>
+ * The first task to reach a valid full grid publishes it and raises a flag
+ * that every task checks before each node, so the remaining workers give up
+ * at once.
+ * <br><br>
+ * Given a TranspositionTable, every worker records the values that led
+ * nowhere in it and skips those recorded, as SearchSolver does; the table
+ * is lock free, so all of them share the one.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class ParallelSearchSolver implements SudokuEngine {
+
+    // fork while a worker has no more than this many tasks queued
+    private static final int SURPLUS = 2;
+
+    private final ForkJoinPool _pool;
+    // a solver per worker for the depth first part of the search, kept
+    // from one solve to the next but not shared with other instances
+    private final ThreadLocal<JasperSolver> _solvers = new ThreadLocal<JasperSolver>();
+    private TranspositionTable _table = null;
+    private long _nodes = 0;
+    // the root of every solve, so its RuleScheduler keeps what it has
+    // measured from one puzzle to the next
+    private JasperSolver _root = null;
+
+    /**
+     * Search on the common pool.  Where several threads solve at once, give
+     * them a pool of their own instead, or they all fan out into this one.
+     */
+    public ParallelSearchSolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the workers to search with; solve() may be called from
+     * one of them
+     */
+    public ParallelSearchSolver(ForkJoinPool pool) {
+        _pool = pool;
+    }
+
+    /**
+     * @param table - where every worker records and looks up dead nodes, or
+     * null for none; may be shared with other searches
+     */
+    public void setTable(TranspositionTable table) {
+        _table = table;
+    }
+
+    /**
+     * The state shared by every task of one solve().
+     */
+    private static final class Job {
+        final TranspositionTable table;
+        final ThreadLocal<JasperSolver> solvers;
+        final AtomicReference<int[]> solution = new AtomicReference<int[]>();
+        final LongAdder nodes = new LongAdder();
+        final LongAdder steps = new LongAdder();
+        volatile boolean done = false;
+
+        Job(TranspositionTable table, ThreadLocal<JasperSolver> solvers) {
+            this.table = table;
+            this.solvers = solvers;
+        }
+
+        /**
+         * Record that no solution extends the values hashing to hash, unless
+         * the search was called off before finding out.
+         */
+        void dead(long hash) {
+            if (table != null && !done)
+                table.addDead(hash);
+        }
+
+        void found(int[] grid) {
+            if (solution.compareAndSet(null, grid))
+                done = true;
+        }
+    }
+
+    public SolveResult solve(int[] puzzle) {
+        _nodes = 0;
+        if (!SearchSolver.isConsistent(puzzle))
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, 0);
+
+        Job job = new Job(_table, _solvers);
+        if (_root == null)
+            _root = new JasperSolver(puzzle);
+        else
+            _root.load(puzzle);
+        JasperSolver root = _root;
+        try {
+            root.propagate(SearchSolver.ROOT_TIER);
+            job.steps.add(root.getSteps());
+            _pool.invoke(new Branch(job, root, -1, 0));
+        } catch (JasperSolver.UnsolvableException e) {
+            job.steps.add(root.getSteps());
+        }
+
+        _nodes = job.nodes.sum();
+        int[] solution = job.solution.get();
+        if (solution == null)
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, job.steps.sum());
+        return new SolveResult(solution, SolveResult.Status.SOLVED, job.steps.sum());
+    }
+
+    /**
+     * @return the number of values tried by the last solve(), over all workers
+     */
+    public long getNodes() {
+        return _nodes;
+    }
+
+    /**
+     * One subtree: a solver of its own, plus the value to place in it first
+     * (val 0 if it is already propagated).
+     */
+    private static final class Branch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job _job;
+        private final JasperSolver _js;
+        private final int _cell;
+        private final int _val;
+
+        Branch(Job job, JasperSolver js, int cell, int val) {
+            _job = job;
+            _js = js;
+            _cell = cell;
+            _val = val;
+        }
+
+        @Override
+        protected void compute() {
+            if (_job.done)
+                return;
+            long hash = _js.getHash();
+            if (_val != 0) {
+                hash ^= JasperSolver.hashOf(_cell, _val);
+                if (_job.table != null && _job.table.isDead(hash))
+                    return;
+                _job.nodes.increment();
+                long before = _js.getSteps();
+                try {
+                    _js.assign(_cell / 9, _cell % 9, _val);
+                    _js.propagate(SearchSolver.NODE_TIER);
+                } catch (JasperSolver.UnsolvableException e) {
+                    _job.dead(hash);
+                    return;
+                } finally {
+                    _job.steps.add(_js.getSteps() - before);
+                }
+            }
+
+            int cell = SearchSolver.pickCell(_js);
+            if (cell < 0) {
+                check(_js);
+                return;
+            }
+            int remains = _js.getRemains(cell / 9, cell % 9);
+            if (remains == Candidates.NONE) {
+                _job.dead(hash);
+                return;
+            }
+
+            if (Candidates.count(remains) > 1 && getSurplusQueuedTaskCount() <= SURPLUS) {
+                List<Branch> children = new ArrayList<Branch>(Candidates.count(remains));
+                for (; remains != 0; remains &= remains - 1)
+                    children.add(new Branch(_job, new JasperSolver(_js), cell, Candidates.first(remains)));
+                invokeAll(children);
+                if (_val != 0)
+                    _job.dead(hash);
+                return;
+            }
+
+            JasperSolver js = _job.solvers.get();
+            if (js == null) {
+                js = new JasperSolver(_js);
+                _job.solvers.set(js);
+            } else {
+                js.copyFrom(_js);
+            }
+            long before = js.getSteps();
+            try {
+                if (!search(js) && _val != 0)
+                    _job.dead(hash);
+            } finally {
+                _job.steps.add(js.getSteps() - before);
+            }
+        }
+
+        private void check(JasperSolver js) {
+            // the rules can leave a broken grid behind after a wrong guess
+            int[] grid = js.ssToIntArray();
+            if (SearchSolver.isValid(grid))
+                _job.found(grid);
+        }
+
+        /**
+         * Search below the state of js on this thread alone, as SearchSolver
+         * does.
+         *
+         * @return true once the search is over, here or elsewhere
+         */
+        private boolean search(JasperSolver js) {
+            int cell = SearchSolver.pickCell(js);
+            if (cell < 0) {
+                check(js);
+                return _job.done;
+            }
+            int row = cell / 9;
+            int col = cell % 9;
+            int remains = js.getRemains(row, col);
+            if (remains == Candidates.NONE)
+                return false;
+
+            TranspositionTable table = _job.table;
+            long hash = js.getHash();
+            int mark = js.mark();
+            for (; remains != 0; remains &= remains - 1) {
+                if (_job.done)
+                    return true;
+                int val = Candidates.first(remains);
+                long child = hash ^ JasperSolver.hashOf(cell, val);
+                if (table != null && table.isDead(child))
+                    continue;
+                _job.nodes.increment();
+                try {
+                    js.assign(row, col, val);
+                    js.propagate(SearchSolver.NODE_TIER);
+                } catch (JasperSolver.UnsolvableException e) {
+                    js.undo(mark);
+                    _job.dead(child);
+                    continue;
+                }
+                if (search(js))
+                    return true;
+                js.undo(mark);
+                _job.dead(child);
+            }
+            js.release(mark);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.vj.sudoku.v1;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes puzzles and other ASCII text into a large direct buffer, handed to
+ * a channel only when it fills, so output goes out in big blocks with no
+ * String or char[] per puzzle and no copy through the Java heap.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class PuzzleWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // the cells on the largest board, so that any puzzle fits in the buffer
+    private static final int MAX_CELLS = Geometry.MAX_BOX * Geometry.MAX_BOX
+            * Geometry.MAX_BOX * Geometry.MAX_BOX;
+
+    private final WritableByteChannel _channel;
+    private final ByteBuffer _buffer;
+
+    /**
+     * @param channel where the bytes go
+     * @param bufferSize how many bytes to collect before each write
+     */
+    public PuzzleWriter(WritableByteChannel channel, int bufferSize) {
+        _channel = channel;
+        _buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_CELLS));
+    }
+
+    /**
+     * @param path the file to write, replacing any there
+     * @return a writer to it
+     * @throws IOException
+     */
+    public static PuzzleWriter toFile(Path path) throws IOException {
+        return new PuzzleWriter(FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), BUFFER_SIZE);
+    }
+
+    /**
+     * @return a writer to stdout
+     */
+    public static PuzzleWriter toStdout() {
+        return new PuzzleWriter(Channels.newChannel(new FileOutputStream(FileDescriptor.out)),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Write the puzzle as a character per cell, '0' for blanks: 81 '0'-'9'
+     * for a 9x9 board, see Geometry for larger ones.
+     *
+     * @param puzzle
+     * @throws IOException
+     */
+    public void write(int[] puzzle) throws IOException {
+        if (_buffer.remaining() < puzzle.length)
+            flush();
+        ByteBuffer buffer = _buffer;
+        for (int cell = 0; cell < puzzle.length; cell++)
+            buffer.put((byte) Geometry.symbol(puzzle[cell]));
+    }
+
+    /**
+     * @param text - ASCII only
+     * @throws IOException
+     */
+    public void write(CharSequence text) throws IOException {
+        for (int nn = 0; nn < text.length(); nn++)
+            write(text.charAt(nn));
+    }
+
+    /**
+     * @param ch - ASCII only
+     * @throws IOException
+     */
+    public void write(char ch) throws IOException {
+        if (!_buffer.hasRemaining())
+            flush();
+        _buffer.put((byte) ch);
+    }
+
+    public void flush() throws IOException {
+        _buffer.flip();
+        while (_buffer.hasRemaining())
+            _channel.write(_buffer);
+        _buffer.clear();
+    }
+
+    public void close() throws IOException {
+        flush();
+        _channel.close();
+    }
+}
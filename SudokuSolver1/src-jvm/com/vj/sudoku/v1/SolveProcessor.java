@@ -0,0 +1,254 @@
+package com.vj.sudoku.v1;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Solves a stream of puzzles as a java.util.concurrent.Flow stage: puzzles
+ * in from a publisher, a SolveResult out per puzzle, in the same order, to
+ * one subscriber.  The result carries the grid, the status and the steps
+ * the engine took.
+ * <br><br>
+ * Nothing is asked of the publisher that the subscriber has not asked for:
+ * puzzles are requested upstream only as the subscriber requests results,
+ * and never more than window ahead of the results it has been sent.  So a
+ * slow subscriber slows the publisher down rather than filling memory, and
+ * at most window puzzles and their results are held at once, however long
+ * the stream.
+ * <br><br>
+ * The solving is done on the executor given, with an engine per thread
+ * built by the factory, as ParallelBatchSolver does; with more than one
+ * thread, up to window puzzles are solved at once.  A pool of platform
+ * threads suits it best, as each of its threads keeps its engine.  Every
+ * signal to the subscriber comes from one thread at a time, as Flow
+ * requires, from whichever thread finds a result ready for it.
+ * <br><br>
+ * An error from the publisher, or a failed solve, cancels the rest and is
+ * passed on to the subscriber at once; completion is passed on once every
+ * result has been sent.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class SolveProcessor implements Flow.Processor<int[], SolveResult> {
+
+    private final Executor _executor;
+    private final ThreadLocal<SudokuEngine> _engines;
+    private final int _window;
+
+    // results being worked out, in input order; shared with onNext()
+    private final ArrayDeque<CompletableFuture<SolveResult>> _results
+            = new ArrayDeque<CompletableFuture<SolveResult>>();
+
+    private volatile Flow.Subscription _upstream = null;
+    private boolean _subscribed = false;
+    // set once its onSubscribe() has returned, so no signal can overtake it
+    private volatile Flow.Subscriber<? super SolveResult> _downstream = null;
+    private final AtomicLong _demand = new AtomicLong();
+    private volatile boolean _upstreamDone = false;
+    private volatile Throwable _error = null;
+    private volatile boolean _cancelled = false;
+
+    // drain() runs on one thread at a time: the one that took this from
+    // 0, looping while others ask it to run again.  Only it touches
+    // _requested and _terminated.
+    private final AtomicInteger _drains = new AtomicInteger();
+    private long _requested = 0;
+    private boolean _terminated = false;
+
+    /**
+     * @param executor runs the solves
+     * @param factory builds one engine per executor thread
+     * @param window the most puzzles requested upstream and not yet
+     * passed on as results
+     */
+    public SolveProcessor(Executor executor, Supplier<SudokuEngine> factory, int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("window " + window);
+        _executor = executor;
+        _engines = ThreadLocal.withInitial(factory);
+        _window = window;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SolveResult> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException();
+        synchronized (this) {
+            if (_subscribed) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    public void request(long n) {
+                    }
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("already subscribed"));
+                return;
+            }
+            _subscribed = true;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("request " + n), false);
+                    return;
+                }
+                long current;
+                do {
+                    current = _demand.get();
+                    if (current == Long.MAX_VALUE)
+                        break;
+                } while (!_demand.compareAndSet(current,
+                        current + n < 0 ? Long.MAX_VALUE : current + n));
+                drain();
+            }
+
+            public void cancel() {
+                _cancelled = true;
+                drain();
+            }
+        });
+        _downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+        }
+        drain();
+    }
+
+    /**
+     * Start solving a puzzle.  The array is copied, so the publisher may
+     * reuse it.
+     */
+    @Override
+    public void onNext(int[] puzzle) {
+        if (_upstreamDone || _cancelled)
+            return;
+        final int[] copy = puzzle.clone();
+        CompletableFuture<SolveResult> result = CompletableFuture.supplyAsync(
+                () -> _engines.get().solve(copy), _executor);
+        synchronized (_results) {
+            _results.add(result);
+        }
+        result.whenComplete((done, failure) -> drain());
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        fail(error, true);
+    }
+
+    @Override
+    public void onComplete() {
+        _upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * @param error - to pass on
+     * @param upstream - it came from the publisher, so there is nothing to
+     * cancel there
+     */
+    private void fail(Throwable error, boolean upstream) {
+        if (_error == null)
+            _error = error;
+        if (upstream)
+            _upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Pass on the results that are ready and wanted, ask upstream for as
+     * many more puzzles as are wanted and fit in the window, and pass on
+     * the end of the stream once it is reached.
+     */
+    private void drain() {
+        if (_drains.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super SolveResult> downstream = _downstream;
+            if (!_terminated && downstream != null) {
+                if (_cancelled || _error != null) {
+                    terminate(downstream);
+                } else {
+                    long sent = 0;
+                    long demand = _demand.get();
+                    while (sent < demand) {
+                        CompletableFuture<SolveResult> head;
+                        synchronized (_results) {
+                            head = _results.peek();
+                            if (head == null || !head.isDone())
+                                break;
+                            _results.poll();
+                        }
+                        _requested--;
+                        SolveResult result;
+                        try {
+                            result = head.join();
+                        } catch (CompletionException e) {
+                            fail(e.getCause(), false);
+                            break;
+                        }
+                        downstream.onNext(result);
+                        sent++;
+                    }
+                    if (sent != 0 && demand != Long.MAX_VALUE)
+                        _demand.addAndGet(-sent);
+
+                    boolean empty;
+                    synchronized (_results) {
+                        empty = _results.isEmpty();
+                    }
+                    Flow.Subscription upstream = _upstream;
+                    if (_cancelled || _error != null) {
+                        terminate(downstream);
+                    } else if (_upstreamDone && empty) {
+                        _terminated = true;
+                        downstream.onComplete();
+                    } else if (upstream != null && !_upstreamDone) {
+                        long wanted = Math.min(_demand.get(), _window) - _requested;
+                        if (wanted > 0) {
+                            _requested += wanted;
+                            upstream.request(wanted);
+                        }
+                    }
+                }
+            }
+            missed = _drains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Cancel upstream, drop whatever is in flight, and pass on the error,
+     * if the subscriber did not cancel.
+     */
+    private void terminate(Flow.Subscriber<? super SolveResult> downstream) {
+        _terminated = true;
+        Flow.Subscription upstream = _upstream;
+        if (upstream != null && !_upstreamDone)
+            upstream.cancel();
+        _upstreamDone = true;
+        synchronized (_results) {
+            for (CompletableFuture<SolveResult> result : _results)
+                result.cancel(false);
+            _results.clear();
+        }
+        if (!_cancelled)
+            downstream.onError(_error);
+    }
+}
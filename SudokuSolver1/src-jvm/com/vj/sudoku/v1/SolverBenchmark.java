@@ -0,0 +1,462 @@
+package com.vj.sudoku.v1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks for the JasperSolver rules and for whole-puzzle solves, run
+ * over the bundled corpora in SudokuSolver1/corpus (easy, medium, hard and
+ * pathological).
+ * <br><br>
+ * Each rule is timed in isolation: one operation restores a solver to the
+ * starting state of the next medium puzzle, cycling through the corpus,
+ * and sweeps that rule over every open cell (or every square corner, for
+ * cleanOtherSquares, every unit for the subset rules and every value for
+ * checkFish).  The "restore" benchmark times the restore alone, so it can
+ * be subtracted.  The solve benchmarks construct a solver and call
+ * solveAndReturnPuzzle() on each puzzle of a corpus in turn, and the
+ * search and dlx benchmarks run SearchSolver and DancingLinksSolver over
+ * them.  The unique benchmarks time
+ * SearchSolver.countSolutions(puzzle, 2), the check that a puzzle has
+ * exactly one solution.
+ * <br><br>
+ * Like JMH, each benchmark is warmed up and then measured over several
+ * timed iterations, with results fed to a sink so the JIT cannot drop them.
+ * Besides ns/op the report gives bytes allocated per op and the allocation
+ * rate (from the per-thread allocation counter), and the GC count and time
+ * spent during measurement.
+ * <br><br>
+ * Usage: SolverBenchmark [-c corpusdir] [-w warmupsecs] [-m measuresecs]
+ * [-i iterations] [regex]
+ * <br>
+ * Only benchmarks whose name matches regex are run.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class SolverBenchmark {
+
+    static final String[] CORPORA = { "easy", "medium", "hard", "pathological" };
+
+    /**
+     * One benchmark.  op() performs a single operation and returns a value
+     * that depends on its work.
+     */
+    abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        abstract int op() throws Exception;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    private final long _warmupNanos;
+    private final long _measureNanos;
+    private final int _iterations;
+
+    static volatile int sink;
+
+    SolverBenchmark(long warmupNanos, long measureNanos, int iterations) {
+        _warmupNanos = warmupNanos;
+        _measureNanos = measureNanos;
+        _iterations = iterations;
+    }
+
+    /**
+     * Read the puzzles in a corpus file.
+     *
+     * @param file
+     * @return the puzzles
+     * @throws IOException
+     */
+    static List<int[]> readCorpus(File file) throws IOException {
+        List<int[]> puzzles = new ArrayList<int[]>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+                int[] puzzle = PuzzleFormat.parse(line);
+                if (puzzle == null)
+                    throw new IOException(file + ": not a puzzle: " + line);
+                puzzles.add(puzzle);
+            }
+        }
+        return puzzles;
+    }
+
+    /**
+     * A rule swept over the board, from the starting state of each
+     * puzzle in turn.
+     */
+    abstract static class RuleBenchmark extends Benchmark {
+        private final JasperSolver[] _starts;
+        private final JasperSolver _solver;
+        private int _next = 0;
+
+        RuleBenchmark(String name, List<int[]> puzzles) {
+            super(name);
+            _starts = new JasperSolver[puzzles.size()];
+            for (int nn = 0; nn < _starts.length; nn++)
+                _starts[nn] = new JasperSolver(puzzles.get(nn));
+            _solver = new JasperSolver(_starts[0]);
+        }
+
+        @Override
+        int op() throws Exception {
+            _solver.copyFrom(_starts[_next]);
+            if (++_next == _starts.length)
+                _next = 0;
+            return sweep(_solver);
+        }
+
+        /**
+         * Sweep the rule over the board once.
+         * @return the number of times it changed anything
+         */
+        abstract int sweep(JasperSolver js) throws Exception;
+    }
+
+    /**
+     * A rule applied at each cell.
+     */
+    abstract static class CellRuleBenchmark extends RuleBenchmark {
+
+        CellRuleBenchmark(String name, List<int[]> puzzles) {
+            super(name, puzzles);
+        }
+
+        @Override
+        int sweep(JasperSolver js) throws Exception {
+            int hits = 0;
+            for (int row = 0; row < 9; row++)
+                for (int col = 0; col < 9; col++)
+                    if (apply(js, row, col))
+                        hits++;
+            return hits;
+        }
+
+        /**
+         * Apply the rule at one cell.
+         * @return true if the rule changed anything
+         */
+        abstract boolean apply(JasperSolver js, int row, int col) throws Exception;
+    }
+
+    /**
+     * A rule applied to each row, column and square, by its unit number.
+     */
+    abstract static class UnitRuleBenchmark extends RuleBenchmark {
+
+        UnitRuleBenchmark(String name, List<int[]> puzzles) {
+            super(name, puzzles);
+        }
+
+        @Override
+        int sweep(JasperSolver js) throws Exception {
+            int hits = 0;
+            for (int unit = 0; unit < 27; unit++)
+                if (apply(js, unit))
+                    hits++;
+            return hits;
+        }
+
+        /**
+         * Apply the rule to one unit.
+         * @return true if the rule changed anything
+         */
+        abstract boolean apply(JasperSolver js, int unit) throws Exception;
+    }
+
+    /**
+     * A rule applied for each value.
+     */
+    abstract static class ValueRuleBenchmark extends RuleBenchmark {
+
+        ValueRuleBenchmark(String name, List<int[]> puzzles) {
+            super(name, puzzles);
+        }
+
+        @Override
+        int sweep(JasperSolver js) throws Exception {
+            int hits = 0;
+            for (int value = 1; value <= 9; value++)
+                if (apply(js, value))
+                    hits++;
+            return hits;
+        }
+
+        /**
+         * Apply the rule for one value.
+         * @return true if the rule changed anything
+         */
+        abstract boolean apply(JasperSolver js, int value) throws Exception;
+    }
+
+    /**
+     * Solve each puzzle of a corpus in turn.
+     */
+    static class SolveBenchmark extends Benchmark {
+        private final int[][] _puzzles;
+        private int _next = 0;
+
+        SolveBenchmark(String name, List<int[]> puzzles) {
+            super(name);
+            _puzzles = puzzles.toArray(new int[puzzles.size()][]);
+        }
+
+        @Override
+        int op() throws Exception {
+            int[] puzzle = _puzzles[_next];
+            if (++_next == _puzzles.length)
+                _next = 0;
+            return new JasperSolver(puzzle).solveAndReturnPuzzle()[40];
+        }
+    }
+
+    /**
+     * Solve each puzzle of a corpus in turn with an engine.
+     */
+    static class EngineBenchmark extends Benchmark {
+        private final SudokuEngine _engine;
+        private final int[][] _puzzles;
+        private int _next = 0;
+
+        EngineBenchmark(String name, SudokuEngine engine, List<int[]> puzzles) {
+            super(name);
+            _engine = engine;
+            _puzzles = puzzles.toArray(new int[puzzles.size()][]);
+        }
+
+        @Override
+        int op() throws Exception {
+            int[] puzzle = _puzzles[_next];
+            if (++_next == _puzzles.length)
+                _next = 0;
+            return (int) _engine.solve(puzzle).getSteps();
+        }
+    }
+
+    /**
+     * Check each puzzle of a corpus in turn for a unique solution.
+     */
+    static class UniqueBenchmark extends Benchmark {
+        private final SearchSolver _search = new SearchSolver();
+        private final int[][] _puzzles;
+        private int _next = 0;
+
+        UniqueBenchmark(String name, List<int[]> puzzles) {
+            super(name);
+            _puzzles = puzzles.toArray(new int[puzzles.size()][]);
+        }
+
+        @Override
+        int op() throws Exception {
+            int[] puzzle = _puzzles[_next];
+            if (++_next == _puzzles.length)
+                _next = 0;
+            return _search.countSolutions(puzzle, 2);
+        }
+    }
+
+    static List<Benchmark> benchmarks(File corpusDir) throws IOException {
+        List<Benchmark> list = new ArrayList<Benchmark>();
+        List<int[]> medium = readCorpus(new File(corpusDir, "medium.txt"));
+
+        list.add(new RuleBenchmark("rule.restore", medium) {
+            @Override
+            int sweep(JasperSolver js) {
+                return 0;
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.checkRowsColsSqrs", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return js.getTile(row, col) == 0 && js.checkRowsColsSqrs(row, col);
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.checkCanOnlyBeOneSqr", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return js.getTile(row, col) == 0 && js.checkCanOnlyBeOneSqr(row, col);
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.checkCanOnlyBeOneCheckRow", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return js.getTile(row, col) == 0 && js.checkCanOnlyBeOneCheckRow(row, col);
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.checkCanOnlyBeOneCheckCol", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return js.getTile(row, col) == 0 && js.checkCanOnlyBeOneCheckCol(row, col);
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.checkThrees", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return js.getTile(row, col) == 0 && js.checkThrees(row, col);
+            }
+        });
+        list.add(new CellRuleBenchmark("rule.cleanOtherSquares", medium) {
+            @Override
+            boolean apply(JasperSolver js, int row, int col) throws Exception {
+                return row % 3 == 0 && col % 3 == 0 && js.cleanOtherSquares(row, col);
+            }
+        });
+        list.add(new UnitRuleBenchmark("rule.checkNakedSubsets", medium) {
+            @Override
+            boolean apply(JasperSolver js, int unit) throws Exception {
+                return js.checkNakedSubsets(unit);
+            }
+        });
+        list.add(new UnitRuleBenchmark("rule.checkHiddenSubsets", medium) {
+            @Override
+            boolean apply(JasperSolver js, int unit) throws Exception {
+                return js.checkHiddenSubsets(unit);
+            }
+        });
+        list.add(new ValueRuleBenchmark("rule.checkFish", medium) {
+            @Override
+            boolean apply(JasperSolver js, int value) throws Exception {
+                return js.checkFish(value);
+            }
+        });
+
+        for (String corpus : CORPORA) {
+            List<int[]> puzzles = readCorpus(new File(corpusDir, corpus + ".txt"));
+            list.add(new SolveBenchmark("solve." + corpus, puzzles));
+            list.add(new EngineBenchmark("search." + corpus, new SearchSolver(), puzzles));
+            list.add(new EngineBenchmark("dlx." + corpus, new DancingLinksSolver(), puzzles));
+            list.add(new UniqueBenchmark("unique." + corpus, puzzles));
+        }
+        return list;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Run ops until at least nanos have passed.
+     * @return the number of ops run, and their elapsed time in result[1]
+     */
+    private static long[] runFor(Benchmark b, long nanos) throws Exception {
+        long ops = 0;
+        int acc = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        int batch = 1;
+        do {
+            for (int nn = 0; nn < batch; nn++)
+                acc += b.op();
+            ops += batch;
+            if (batch < 1024)
+                batch <<= 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        sink += acc;
+        return new long[] { ops, elapsed };
+    }
+
+    /**
+     * Warm up and measure one benchmark, and print its result line.
+     */
+    void run(Benchmark b) throws Exception {
+        runFor(b, _warmupNanos);
+
+        double[] nsPerOp = new double[_iterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long bytes0 = allocatedBytes();
+        long gcCount0 = gcCount();
+        long gcMillis0 = gcMillis();
+        for (int it = 0; it < _iterations; it++) {
+            long[] r = runFor(b, _measureNanos);
+            nsPerOp[it] = (double) r[1] / r[0];
+            totalOps += r[0];
+            totalNanos += r[1];
+        }
+        long bytes = allocatedBytes() - bytes0;
+
+        double mean = 0;
+        for (double ns : nsPerOp)
+            mean += ns;
+        mean /= _iterations;
+        double var = 0;
+        for (double ns : nsPerOp)
+            var += (ns - mean) * (ns - mean);
+        double sd = _iterations > 1 ? Math.sqrt(var / (_iterations - 1)) : 0;
+
+        System.out.println(String.format("%-32s %12.1f ns/op +- %8.1f %12.0f ops/s %10.1f B/op %9.1f MB/s  gc %d (%d ms)",
+                b.name, mean, sd, 1e9 / mean,
+                THREADS == null ? Double.NaN : (double) bytes / totalOps,
+                THREADS == null ? Double.NaN : bytes / 1048576.0 / (totalNanos / 1e9),
+                gcCount() - gcCount0, gcMillis() - gcMillis0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        File corpusDir = new File("SudokuSolver1/corpus");
+        double warmup = 2;
+        double measure = 2;
+        int iterations = 5;
+        Pattern filter = null;
+        for (int argn = 0; argn < args.length; argn++) {
+            if (args[argn].equals("-c") && argn + 1 < args.length)
+                corpusDir = new File(args[++argn]);
+            else if (args[argn].equals("-w") && argn + 1 < args.length)
+                warmup = Double.parseDouble(args[++argn]);
+            else if (args[argn].equals("-m") && argn + 1 < args.length)
+                measure = Double.parseDouble(args[++argn]);
+            else if (args[argn].equals("-i") && argn + 1 < args.length)
+                iterations = Integer.parseInt(args[++argn]);
+            else if (!args[argn].startsWith("-") && filter == null)
+                filter = Pattern.compile(args[argn]);
+            else {
+                System.err.println("usage: SolverBenchmark [-c corpusdir] [-w warmupsecs]"
+                        + " [-m measuresecs] [-i iterations] [regex]");
+                System.exit(2);
+            }
+        }
+
+        SolverBenchmark bench = new SolverBenchmark((long) (warmup * 1e9),
+                (long) (measure * 1e9), Math.max(1, iterations));
+        System.out.println("# " + System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version") + ", warmup " + warmup
+                + " s, " + iterations + " x " + measure + " s");
+        for (Benchmark b : benchmarks(corpusDir))
+            if (filter == null || filter.matcher(b.name).find())
+                bench.run(b);
+    }
+}
@@ -0,0 +1,355 @@
+package com.vj.sudoku.v1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Solves puzzles for clients over a socket, for a backend to share one
+ * solver between any number of callers.
+ * <br><br>
+ * The protocol is a line per puzzle, as BatchSolver reads them, answered
+ * by a line per puzzle in the order asked: the grid, the status (SOLVED,
+ * UNSOLVED or INVALID) and the steps taken, separated by spaces.  A line
+ * that is not a puzzle is answered "ERROR not a puzzle"; blank lines and
+ * lines starting with '#' are skipped.  Clients may send more lines before
+ * reading the answers, and close the connection when they are done.
+ * <br><br>
+ * Each connection is served by a virtual thread of its own, which parses a
+ * puzzle, queues it, and parks until it is solved, so thousands of idle or
+ * waiting clients cost little.  Virtual threads came in with Java 21; on
+ * an older JVM each connection gets a pooled platform thread instead, which
+ * works the same but costs more per client.  If the engine fails on a
+ * puzzle, that puzzle is answered "ERROR " and the failure, and the
+ * connection carries on.  The solving is done by a fixed number of
+ * worker threads, each with its own engine.  A worker takes whatever has
+ * queued up since it last looked, up to a batch at a time, and solves the
+ * lot before looking again, so under load a handoff is paid per batch
+ * rather than per puzzle.  At most maxInFlight puzzles may be queued or
+ * being solved at once; a puzzle arriving beyond that is answered "BUSY"
+ * straight away rather than queued, so an overloaded server stays quick to
+ * answer and its memory flat, and the client can retry later.
+ * <br><br>
+ * Usage: SolverServer [-p port] [-e engine] [-t threads] [-b batch]
+ * [-m max] [-c size]
+ * <ul>
+ * <li>-p the port to listen on, on the loopback address (default 7777;
+ * 0 picks a free one)
+ * <li>-e the engine, as for BatchSolver (default "search")
+ * <li>-t worker threads (default one per core)
+ * <li>-b the most puzzles a worker takes at once (default 16)
+ * <li>-m the most puzzles queued or being solved at once (default 64 per
+ * worker)
+ * <li>-c keep a SolutionCache of this size, shared by the workers
+ * </ul>
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class SolverServer implements Closeable {
+
+    // a puzzle waiting for a worker, and where its result goes
+    private static final class Request {
+        final int[] puzzle;
+        final CompletableFuture<SolveResult> result = new CompletableFuture<SolveResult>();
+
+        Request(int[] puzzle) {
+            this.puzzle = puzzle;
+        }
+    }
+
+    private final ServerSocket _socket;
+    private final Supplier<SudokuEngine> _factory;
+    private final int _batch;
+    private final BlockingQueue<Request> _queue = new LinkedBlockingQueue<Request>();
+    private final Semaphore _inFlight;
+    private final List<Thread> _workers = new ArrayList<Thread>();
+    private final ExecutorService _connections = newConnectionExecutor();
+    private final Set<Socket> _open = ConcurrentHashMap.newKeySet();
+    private Thread _acceptor = null;
+    private volatile boolean _closed = false;
+
+    private final LongAdder _solved = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+
+    /**
+     * Bind to a port on the loopback address.  Nothing is served until
+     * start().
+     *
+     * @param port the port, or 0 for any free one (see getPort())
+     * @param factory builds the engine of each worker
+     * @param workers the number of worker threads
+     * @param batch the most puzzles a worker takes at once
+     * @param maxInFlight the most puzzles queued or being solved at once
+     * @throws IOException if the port cannot be bound
+     */
+    public SolverServer(int port, Supplier<SudokuEngine> factory, int workers,
+            int batch, int maxInFlight) throws IOException {
+        if (workers < 1 || batch < 1 || maxInFlight < 1)
+            throw new IllegalArgumentException("workers " + workers + ", batch " + batch
+                    + ", maxInFlight " + maxInFlight);
+        _socket = new ServerSocket();
+        _socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        _factory = factory;
+        _batch = batch;
+        _inFlight = new Semaphore(maxInFlight);
+        for (int nn = 0; nn < workers; nn++) {
+            Thread worker = new Thread(this::work, "solver-" + nn);
+            worker.setDaemon(true);
+            _workers.add(worker);
+        }
+    }
+
+    /**
+     * @return an executor that runs each task on a new virtual thread, or
+     * on a pooled platform thread if this JVM has no virtual threads
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            // looked up by name, so the tree still builds before Java 21
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return the port being listened on
+     */
+    public int getPort() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * Start the workers, and accept connections on a thread of its own.
+     */
+    public synchronized void start() {
+        if (_acceptor != null)
+            throw new IllegalStateException("already started");
+        for (Thread worker : _workers)
+            worker.start();
+        _acceptor = new Thread(this::accept, "accept");
+        _acceptor.setDaemon(true);
+        _acceptor.start();
+    }
+
+    /**
+     * @return the number of puzzles answered with a result
+     */
+    public long getSolved() {
+        return _solved.sum();
+    }
+
+    /**
+     * @return the number of puzzles answered "BUSY"
+     */
+    public long getRejected() {
+        return _rejected.sum();
+    }
+
+    /**
+     * @return the number of batches the workers have taken
+     */
+    public long getBatches() {
+        return _batches.sum();
+    }
+
+    /**
+     * Stop listening, drop every connection and stop the workers.
+     */
+    @Override
+    public void close() throws IOException {
+        _closed = true;
+        _socket.close();
+        for (Socket socket : _open)
+            socket.close();
+        _connections.shutdownNow();
+        for (Thread worker : _workers)
+            worker.interrupt();
+    }
+
+    private void accept() {
+        while (!_closed) {
+            final Socket socket;
+            try {
+                socket = _socket.accept();
+            } catch (IOException e) {
+                if (!_closed)
+                    System.err.println("accept: " + e);
+                continue;
+            }
+            _open.add(socket);
+            try {
+                _connections.execute(() -> serve(socket));
+            } catch (RuntimeException e) {
+                // shutting down
+                _open.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Answer the puzzles of one connection, in order, until the client
+     * closes it.  Runs on a thread of its own, virtual if it can be.
+     */
+    private void serve(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.US_ASCII));
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+            socket.setTcpNoDelay(true);
+            int[] puzzle = new int[PuzzleFormat.CELLS];
+            StringBuilder line = new StringBuilder();
+            String text;
+            while ((text = in.readLine()) != null) {
+                if (text.length() == 0 || text.charAt(0) == '#')
+                    continue;
+                line.setLength(0);
+                if (!PuzzleFormat.parse(text, puzzle)) {
+                    line.append("ERROR not a puzzle");
+                } else if (!_inFlight.tryAcquire()) {
+                    _rejected.increment();
+                    line.append("BUSY");
+                } else {
+                    Request request = new Request(puzzle.clone());
+                    _queue.add(request);
+                    try {
+                        SolveResult result = request.result.get();
+                        _solved.increment();
+                        PuzzleFormat.format(result.getGrid(), line);
+                        line.append(' ').append(result.getStatus())
+                            .append(' ').append(result.getSteps());
+                    } catch (ExecutionException e) {
+                        line.append("ERROR ").append(e.getCause());
+                    }
+                }
+                line.append('\n');
+                out.append(line);
+                // answer at once unless more puzzles are already waiting
+                if (!in.ready())
+                    out.flush();
+            }
+        } catch (SocketException e) {
+            // closed, by the client or by close()
+        } catch (IOException e) {
+            if (!_closed)
+                System.err.println("connection: " + e);
+        } catch (InterruptedException e) {
+            // close()
+        } finally {
+            _open.remove(socket);
+        }
+    }
+
+    /**
+     * Take batches of puzzles off the queue and solve them, until
+     * interrupted.  Runs on each worker thread.
+     */
+    private void work() {
+        SudokuEngine engine = _factory.get();
+        List<Request> batch = new ArrayList<Request>(_batch);
+        try {
+            while (!_closed) {
+                batch.add(_queue.take());
+                _queue.drainTo(batch, _batch - 1);
+                _batches.increment();
+                for (Request request : batch) {
+                    try {
+                        request.result.complete(engine.solve(request.puzzle));
+                    } catch (RuntimeException e) {
+                        request.result.completeExceptionally(e);
+                    } finally {
+                        _inFlight.release();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // close()
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: SolverServer [-p port] [-e search|parallel|rules|dlx]"
+                + " [-t threads] [-b batch] [-m max] [-c size]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 7777;
+        String engineName = "search";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batch = 16;
+        int maxInFlight = 0;
+        int cacheSize = 0;
+        try {
+            for (int argn = 0; argn < args.length; argn++) {
+                if (args[argn].equals("-p") && argn + 1 < args.length)
+                    port = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-e") && argn + 1 < args.length)
+                    engineName = args[++argn];
+                else if (args[argn].equals("-t") && argn + 1 < args.length)
+                    threads = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-b") && argn + 1 < args.length)
+                    batch = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-m") && argn + 1 < args.length)
+                    maxInFlight = Integer.parseInt(args[++argn]);
+                else if (args[argn].equals("-c") && argn + 1 < args.length)
+                    cacheSize = Integer.parseInt(args[++argn]);
+                else
+                    usage();
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        final String name = engineName;
+        if (BatchSolver.engine(name, Geometry.STANDARD) == null || threads < 1 || batch < 1
+                || maxInFlight < 0 || cacheSize < 0)
+            usage();
+        // results are kept under the puzzle and under its canonical form
+        final SolutionCache cache = cacheSize > 0 ? new SolutionCache(cacheSize * 2) : null;
+
+        SolverServer server = new SolverServer(port,
+                () -> BatchSolver.withCache(BatchSolver.engine(name, Geometry.STANDARD), cache),
+                threads, batch, maxInFlight > 0 ? maxInFlight : threads * 64);
+        server.start();
+        System.err.println("listening on " + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + server.getPort());
+        server._acceptor.join();
+    }
+}
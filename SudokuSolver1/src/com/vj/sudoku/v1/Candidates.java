@@ -0,0 +1,65 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Bit operations on candidate masks.  A mask holds the values 1-9 as
+ * bits 0-8, so a whole "remains" set fits in a single short and the
+ * set operations the solver needs are plain and / or / not.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class Candidates {
+
+    /** Mask holding all of the values 1-9. */
+    public static final int ALL = 0x1FF;
+
+    /** Mask holding no values. */
+    public static final int NONE = 0;
+
+    private Candidates() {
+    }
+
+    /**
+     * Return the mask holding just the one value.
+     * @param val a value 1-9
+     */
+    public static int bit(int val) {
+        return 1 << (val - 1);
+    }
+
+    /**
+     * Return true if the mask holds the value.
+     * @param mask a candidate mask
+     * @param val a value 1-9
+     */
+    public static boolean contains(int mask, int val) {
+        return (mask & (1 << (val - 1))) != 0;
+    }
+
+    /**
+     * Return the number of values held in the mask.
+     * @param mask a candidate mask
+     */
+    public static int count(int mask) {
+        return Integer.bitCount(mask);
+    }
+
+    /**
+     * Return the lowest value held in the mask, or 0 if it is empty.
+     * @param mask a candidate mask
+     */
+    public static int first(int mask) {
+        return mask == 0 ? 0 : Integer.numberOfTrailingZeros(mask) + 1;
+    }
+
+    /**
+     * Return a pretty printed String of values in the mask, e.g. "1-3----8-".
+     * @param mask a candidate mask
+     */
+    public static String toString(int mask) {
+        StringBuilder str = new StringBuilder(9);
+        for (int val = 1; val < 10; val++)
+            str.append(contains(mask, val) ? (char) ('0' + val) : '-');
+        return str.toString();
+    }
+}
@@ -0,0 +1,348 @@
+package com.vj.sudoku.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The canonical form of a 9x9 puzzle under Sudoku's symmetries: swapping
+ * rows within a band, swapping bands, the same for columns and stacks,
+ * transposing, and relabelling the values.  Puzzles that are any mix of
+ * those away from each other have the same canonical puzzle, and each one
+ * keeps the transform that takes it there, so a solution of the canonical
+ * puzzle can be mapped back to a solution of it.
+ * <br><br>
+ * The canonical puzzle is the one that reads smallest, cell by cell in row
+ * order, once each value is relabelled in the order it first appears, with
+ * blanks reading larger than any value (so the givens are drawn to the top
+ * left, which keeps ties few).  It is found a row at a time: every way of
+ * making the first row smallest is kept, each of those is extended by every
+ * row allowed next, and again only the smallest are kept, until all 9 rows
+ * are placed.  Reading a row also settles where its givens' columns (and
+ * their stacks) go, searching the choices and cutting off any that already
+ * read larger than the best so far; columns that have been blank in every
+ * row so far read the same whichever way they go, so they are left to be
+ * settled by a later row rather than tried in every order.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class CanonicalForm {
+
+    private static final int BLANK = 10;
+
+    private final int[] _puzzle;
+    private final boolean _transposed;
+    private final int[] _rows;
+    private final int[] _cols;
+    private final int[] _labels;
+    private final int[] _values;
+
+    /**
+     * One way of ordering the puzzle so far: which way round it is, the
+     * rows placed, the columns settled, and the labels given to the values
+     * met.  Each third of the columns (a slot) holds one stack, or -1 while
+     * it is not settled; a slot's settled columns come first, and the
+     * slots with a stack before those without.
+     */
+    private static final class Frame {
+        final boolean transposed;
+        final int[] rows = new int[9];
+        final int[] labels = new int[10];
+        final int[] cols = new int[9];
+        final int[] stacks = new int[3];
+        final int[] settled = new int[3];
+        int placed;
+        int usedRows;
+        int usedCols;
+        int usedStacks;
+        int nextLabel = 1;
+
+        Frame(boolean transposed) {
+            this.transposed = transposed;
+            for (int nn = 0; nn < 9; nn++)
+                cols[nn] = -1;
+            for (int nn = 0; nn < 3; nn++)
+                stacks[nn] = -1;
+        }
+
+        Frame(Frame other) {
+            transposed = other.transposed;
+            System.arraycopy(other.rows, 0, rows, 0, 9);
+            System.arraycopy(other.labels, 0, labels, 0, 10);
+            System.arraycopy(other.cols, 0, cols, 0, 9);
+            System.arraycopy(other.stacks, 0, stacks, 0, 3);
+            System.arraycopy(other.settled, 0, settled, 0, 3);
+            placed = other.placed;
+            usedRows = other.usedRows;
+            usedCols = other.usedCols;
+            usedStacks = other.usedStacks;
+            nextLabel = other.nextLabel;
+        }
+
+        /**
+         * @return true if row may be placed next: the next in its band, or
+         * the first of a band not yet started
+         */
+        boolean canFollow(int row) {
+            if ((usedRows & 1 << row) != 0)
+                return false;
+            if (placed % 3 != 0)
+                return row / 3 == rows[placed - 1] / 3;
+            return (usedRows & 7 << (row / 3) * 3) == 0;
+        }
+
+        /**
+         * Settle whatever is left, lowest first; it reads the same any way.
+         */
+        void settleRest() {
+            for (int slot = 0; slot < 3; slot++) {
+                if (stacks[slot] < 0) {
+                    int stack = Integer.numberOfTrailingZeros(~usedStacks);
+                    stacks[slot] = stack;
+                    usedStacks |= 1 << stack;
+                }
+                for (; settled[slot] < 3; settled[slot]++) {
+                    int col = Integer.numberOfTrailingZeros(~usedCols & 7 << stacks[slot] * 3);
+                    cols[slot*3 + settled[slot]] = col;
+                    usedCols |= 1 << col;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the smallest readings of the next row over a set of frames.
+     */
+    private static final class Search {
+        final int[] puzzle;
+        final int[] best = new int[9];
+        final int[] key = new int[9];
+        List<Frame> found;
+        Frame work;
+        int row;
+
+        Search(int[] puzzle) {
+            this.puzzle = puzzle;
+        }
+
+        void start() {
+            for (int nn = 0; nn < 9; nn++)
+                best[nn] = BLANK + 1;
+            found = new ArrayList<Frame>();
+        }
+
+        /**
+         * Read row through frame, adding a frame to found for each smallest
+         * way of doing so that ties with the best so far (and dropping those
+         * found before if it beats them).
+         */
+        void read(Frame frame, int row) {
+            work = new Frame(frame);
+            this.row = row;
+            read(0, false);
+        }
+
+        /**
+         * Read on from position at.
+         *
+         * @param better - the row so far already reads smaller than best
+         * @return true if best changed; it then starts with the row so far
+         */
+        private boolean read(int at, boolean better) {
+            Frame w = work;
+            if (at == 9) {
+                if (better) {
+                    found.clear();
+                    System.arraycopy(key, 0, best, 0, 9);
+                }
+                Frame done = new Frame(w);
+                done.rows[done.placed++] = row;
+                done.usedRows |= 1 << row;
+                found.add(done);
+                return better;
+            }
+
+            int slot = at / 3;
+            boolean changed = false;
+            boolean any = false;
+            if (w.stacks[slot] < 0) {
+                // a stack for the slot, from those with a given in the row
+                for (int stack = 0; stack < 3; stack++) {
+                    if ((w.usedStacks & 1 << stack) != 0 || !hasGiven(stack*3, stack*3 + 3))
+                        continue;
+                    any = true;
+                    w.stacks[slot] = stack;
+                    w.usedStacks |= 1 << stack;
+                    if (read(at, better)) {
+                        changed = true;
+                        better = false;
+                    }
+                    w.stacks[slot] = -1;
+                    w.usedStacks &= ~(1 << stack);
+                }
+                return any ? changed : blanks(at, 9, better);
+            }
+
+            if (at % 3 < w.settled[slot])
+                return step(at, cell(w.cols[at]), better);
+
+            // a column of the slot's stack, from those with a given in the row
+            int stack = w.stacks[slot];
+            for (int col = stack*3; col < stack*3 + 3; col++) {
+                if ((w.usedCols & 1 << col) != 0 || cell(col) == 0)
+                    continue;
+                any = true;
+                w.cols[at] = col;
+                w.usedCols |= 1 << col;
+                w.settled[slot]++;
+                if (step(at, cell(col), better)) {
+                    changed = true;
+                    better = false;
+                }
+                w.settled[slot]--;
+                w.usedCols &= ~(1 << col);
+                w.cols[at] = -1;
+            }
+            return any ? changed : blanks(at, slot*3 + 3, better);
+        }
+
+        /**
+         * Read val at position at, labelling it if it is new, and go on.
+         */
+        private boolean step(int at, int val, boolean better) {
+            Frame w = work;
+            boolean fresh = val != 0 && w.labels[val] == 0;
+            int k = val == 0 ? BLANK : fresh ? w.nextLabel : w.labels[val];
+            if (!better && k > best[at])
+                return false;
+            key[at] = k;
+            if (fresh) {
+                w.labels[val] = w.nextLabel++;
+            }
+            boolean changed = read(at + 1, better || k < best[at]);
+            if (fresh) {
+                w.labels[val] = 0;
+                w.nextLabel--;
+            }
+            return changed;
+        }
+
+        /**
+         * Read blanks from position at up to end, leaving those columns
+         * unsettled, and go on.
+         */
+        private boolean blanks(int at, int end, boolean better) {
+            for (; at < end; at++) {
+                if (!better && BLANK > best[at])
+                    return false;
+                better |= BLANK < best[at];
+                key[at] = BLANK;
+            }
+            return read(end, better);
+        }
+
+        private boolean hasGiven(int from, int to) {
+            for (int col = from; col < to; col++)
+                if (cell(col) != 0)
+                    return true;
+            return false;
+        }
+
+        private int cell(int col) {
+            return CanonicalForm.cell(puzzle, work.transposed, row, col);
+        }
+    }
+
+    private CanonicalForm(int[] puzzle, Frame frame) {
+        frame.settleRest();
+        _transposed = frame.transposed;
+        _rows = frame.rows;
+        _cols = frame.cols;
+
+        // values that are not in the puzzle get the labels left over, in order
+        _labels = frame.labels;
+        int next = frame.nextLabel;
+        for (int val = 1; val <= 9; val++)
+            if (_labels[val] == 0)
+                _labels[val] = next++;
+        _values = new int[10];
+        for (int val = 1; val <= 9; val++)
+            _values[_labels[val]] = val;
+
+        _puzzle = toCanonical(puzzle);
+    }
+
+    /**
+     * @param puzzle - 81 values in row order, 0 for blanks; not modified
+     * @return its canonical form
+     */
+    public static CanonicalForm of(int[] puzzle) {
+        if (puzzle.length != PuzzleFormat.CELLS)
+            throw new IllegalArgumentException("puzzle has " + puzzle.length + " cells");
+
+        List<Frame> frames = new ArrayList<Frame>();
+        frames.add(new Frame(false));
+        frames.add(new Frame(true));
+        Search search = new Search(puzzle);
+        for (int placed = 0; placed < 9; placed++) {
+            search.start();
+            for (Frame frame : frames)
+                for (int row = 0; row < 9; row++)
+                    if (frame.canFollow(row))
+                        search.read(frame, row);
+            frames = search.found;
+        }
+        return new CanonicalForm(puzzle, frames.get(0));
+    }
+
+    private static int cell(int[] puzzle, boolean transposed, int row, int col) {
+        return transposed ? puzzle[col*9 + row] : puzzle[row*9 + col];
+    }
+
+    /**
+     * @return the canonical puzzle; shared, so must not be changed
+     */
+    public int[] getPuzzle() {
+        return _puzzle;
+    }
+
+    /**
+     * @return the canonical puzzle in the one line text form, for keying on
+     */
+    public String getKey() {
+        return PuzzleFormat.toString(_puzzle);
+    }
+
+    /**
+     * @param grid - 81 values of a grid the same way round as the puzzle
+     * this was made from, 0 for blanks
+     * @return the grid moved the way the puzzle was to make it canonical
+     */
+    public int[] toCanonical(int[] grid) {
+        int[] out = new int[PuzzleFormat.CELLS];
+        for (int row = 0; row < 9; row++)
+            for (int col = 0; col < 9; col++)
+                out[row*9 + col] = _labels[cell(grid, _transposed, _rows[row], _cols[col])];
+        return out;
+    }
+
+    /**
+     * @param grid - 81 values of a grid the same way round as the canonical
+     * puzzle, such as its solution, 0 for blanks
+     * @return the grid moved back the way round the puzzle this was made
+     * from is
+     */
+    public int[] fromCanonical(int[] grid) {
+        int[] out = new int[PuzzleFormat.CELLS];
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                int val = _values[grid[row*9 + col]];
+                if (_transposed)
+                    out[_cols[col]*9 + _rows[row]] = val;
+                else
+                    out[_rows[row]*9 + _cols[col]] = val;
+            }
+        }
+        return out;
+    }
+}
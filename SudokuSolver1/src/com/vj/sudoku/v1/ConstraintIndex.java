@@ -0,0 +1,119 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Which values are placed in each row, column and 3x3 square of a board,
+ * kept up to date one change at a time, so that finding the values a cell's
+ * peers already use costs a few mask operations instead of a scan of the
+ * board.
+ * <br><br>
+ * Each of the 27 units keeps a count per value as well as a mask (see
+ * Candidates), so a board holding the same value twice in a unit, as a
+ * user's half-entered one can, still comes out right when one of the pair
+ * is cleared.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class ConstraintIndex {
+
+    // units 0-8 are the rows, 9-17 the columns and 18-26 the squares
+    private final int[] _masks = new int[27];
+    private final byte[] _counts = new byte[27 * 9];
+
+    // the values in each 9-bit mask, in increasing order
+    private static final int[][] VALUES = new int[1 << 9][];
+    static {
+        for (int mask = 0; mask < VALUES.length; mask++) {
+            VALUES[mask] = new int[Candidates.count(mask)];
+            int nn = 0;
+            for (int val = 1; val <= 9; val++)
+                if (Candidates.contains(mask, val))
+                    VALUES[mask][nn++] = val;
+        }
+    }
+
+    /**
+     * Index every value on a board, forgetting the previous one.
+     *
+     * @param puzzle - 81 values in row order, 0 for blanks
+     */
+    public void load(int[] puzzle) {
+        for (int unit = 0; unit < 27; unit++)
+            _masks[unit] = Candidates.NONE;
+        for (int nn = 0; nn < _counts.length; nn++)
+            _counts[nn] = 0;
+        for (int cell = 0; cell < 9*9; cell++)
+            if (puzzle[cell] != 0)
+                add(cell, puzzle[cell]);
+    }
+
+    /**
+     * Record that a cell has changed from one value to another.
+     *
+     * @param cell - row*9 + col
+     * @param oldVal - its value until now, or 0
+     * @param newVal - its value from now on, or 0
+     */
+    public void set(int cell, int oldVal, int newVal) {
+        if (oldVal == newVal)
+            return;
+        if (oldVal != 0)
+            remove(cell, oldVal);
+        if (newVal != 0)
+            add(cell, newVal);
+    }
+
+    private void add(int cell, int val) {
+        int row = cell / 9;
+        int col = cell % 9;
+        bump(row, val, 1);
+        bump(9 + col, val, 1);
+        bump(18 + (row/3)*3 + col/3, val, 1);
+    }
+
+    private void remove(int cell, int val) {
+        int row = cell / 9;
+        int col = cell % 9;
+        bump(row, val, -1);
+        bump(9 + col, val, -1);
+        bump(18 + (row/3)*3 + col/3, val, -1);
+    }
+
+    private void bump(int unit, int val, int by) {
+        int count = _counts[unit*9 + val - 1] += by;
+        if (count == 0)
+            _masks[unit] &= ~Candidates.bit(val);
+        else
+            _masks[unit] |= Candidates.bit(val);
+    }
+
+    /**
+     * @param cell - row*9 + col
+     * @param val - the value the cell holds, or 0
+     * @return the mask of values placed in the other cells of its row,
+     * column and square
+     */
+    public int getUsed(int cell, int val) {
+        int row = cell / 9;
+        int col = cell % 9;
+        int rowUnit = row;
+        int colUnit = 9 + col;
+        int sqrUnit = 18 + (row/3)*3 + col/3;
+        int used = _masks[rowUnit] | _masks[colUnit] | _masks[sqrUnit];
+        // the cell's own value only counts if a peer holds it too
+        if (val != 0 && _counts[rowUnit*9 + val - 1] <= 1
+                && _counts[colUnit*9 + val - 1] <= 1
+                && _counts[sqrUnit*9 + val - 1] <= 1)
+            used &= ~Candidates.bit(val);
+        return used;
+    }
+
+    /**
+     * @param mask - see Candidates
+     * @return the values in mask, in increasing order; shared, so must not
+     * be changed
+     */
+    public static int[] values(int mask) {
+        return VALUES[mask];
+    }
+}
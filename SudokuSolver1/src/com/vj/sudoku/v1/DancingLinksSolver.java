@@ -0,0 +1,214 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Solves puzzles as an exact cover problem, with Knuth's Algorithm X and
+ * Dancing Links.  Each of the 729 candidate placements (cell, value) is a
+ * row covering four of the 324 constraints: the cell is filled, and the
+ * value appears in its row, its column and its 3x3 square.  A solution is
+ * a set of rows covering every constraint exactly once.
+ * <br><br>
+ * Unlike the rule-based engines, the time taken depends little on how the
+ * puzzle was built, so it stays steady on puzzles designed to defeat
+ * propagation and naive backtracking.
+ * <br><br>
+ * The links live in int arrays built once by the constructor; each solve()
+ * starts by copying back the pristine links, so solving allocates nothing
+ * but the result.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class DancingLinksSolver implements SudokuEngine {
+
+    private static final int COLUMNS = 4 * 9*9;
+    private static final int ROWS = 9*9*9;
+    private static final int ROOT = 0;
+    // node 0 is the root, 1-324 the column headers, then 4 nodes per row
+    private static final int NODES = 1 + COLUMNS + 4 * ROWS;
+
+    private final int[] _left = new int[NODES];
+    private final int[] _right = new int[NODES];
+    private final int[] _up = new int[NODES];
+    private final int[] _down = new int[NODES];
+    private final int[] _column = new int[NODES];
+    private final int[] _size = new int[NODES];
+
+    private final int[] _pristineLeft;
+    private final int[] _pristineRight;
+    private final int[] _pristineUp;
+    private final int[] _pristineDown;
+    private final int[] _pristineSize;
+
+    // the row chosen at each depth of the search
+    private final int[] _chosen = new int[9*9];
+    private final int[] _grid = new int[9*9];
+    private long _steps;
+
+    public DancingLinksSolver() {
+        for (int col = 0; col <= COLUMNS; col++) {
+            _left[col] = col == 0 ? COLUMNS : col - 1;
+            _right[col] = col == COLUMNS ? 0 : col + 1;
+            _up[col] = col;
+            _down[col] = col;
+            _column[col] = col;
+            _size[col] = 0;
+        }
+
+        int node = 1 + COLUMNS;
+        for (int row = 0; row < ROWS; row++) {
+            int first = node;
+            int[] cols = columnsOf(row);
+            for (int nn = 0; nn < 4; nn++, node++) {
+                int col = cols[nn];
+                _column[node] = col;
+                _up[node] = _up[col];
+                _down[node] = col;
+                _down[_up[col]] = node;
+                _up[col] = node;
+                _size[col]++;
+                _left[node] = nn == 0 ? first + 3 : node - 1;
+                _right[node] = nn == 3 ? first : node + 1;
+            }
+        }
+
+        _pristineLeft = _left.clone();
+        _pristineRight = _right.clone();
+        _pristineUp = _up.clone();
+        _pristineDown = _down.clone();
+        _pristineSize = _size.clone();
+    }
+
+    /**
+     * @param row - a candidate placement, cell*9 + value-1
+     * @return the four constraint columns (1-324) the placement covers
+     */
+    private static int[] columnsOf(int row) {
+        int cell = row / 9;
+        int digit = row % 9;
+        int r = cell / 9;
+        int c = cell % 9;
+        int sqr = (r/3)*3 + c/3;
+        return new int[] {
+            1 + cell,
+            1 + 9*9 + r*9 + digit,
+            1 + 2*9*9 + c*9 + digit,
+            1 + 3*9*9 + sqr*9 + digit
+        };
+    }
+
+    /**
+     * @return the first of the four nodes of a candidate placement
+     */
+    private static int firstNode(int row) {
+        return 1 + COLUMNS + 4 * row;
+    }
+
+    private static int rowOf(int node) {
+        return (node - 1 - COLUMNS) / 4;
+    }
+
+    public SolveResult solve(int[] puzzle) {
+        System.arraycopy(_pristineLeft, 0, _left, 0, NODES);
+        System.arraycopy(_pristineRight, 0, _right, 0, NODES);
+        System.arraycopy(_pristineUp, 0, _up, 0, NODES);
+        System.arraycopy(_pristineDown, 0, _down, 0, NODES);
+        System.arraycopy(_pristineSize, 0, _size, 0, NODES);
+        _steps = 0;
+
+        // the givens are rows every solution must include; a given whose
+        // constraints are already covered clashes with an earlier one
+        for (int cell = 0; cell < 9*9; cell++) {
+            int val = puzzle[cell];
+            _grid[cell] = val;
+            if (val == 0)
+                continue;
+            int first = firstNode(cell*9 + val - 1);
+            int node = first;
+            do {
+                if (isCovered(_column[node]))
+                    return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, _steps);
+                node = _right[node];
+            } while (node != first);
+            node = first;
+            do {
+                cover(_column[node]);
+                node = _right[node];
+            } while (node != first);
+        }
+
+        if (!search(0))
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, _steps);
+        return new SolveResult(_grid.clone(), SolveResult.Status.SOLVED, _steps);
+    }
+
+    /**
+     * @return true if col has been unlinked from the header list
+     */
+    private boolean isCovered(int col) {
+        return _right[_left[col]] != col;
+    }
+
+    private void cover(int col) {
+        _right[_left[col]] = _right[col];
+        _left[_right[col]] = _left[col];
+        for (int row = _down[col]; row != col; row = _down[row]) {
+            for (int node = _right[row]; node != row; node = _right[node]) {
+                _down[_up[node]] = _down[node];
+                _up[_down[node]] = _up[node];
+                _size[_column[node]]--;
+            }
+        }
+    }
+
+    private void uncover(int col) {
+        for (int row = _up[col]; row != col; row = _up[row]) {
+            for (int node = _left[row]; node != row; node = _left[node]) {
+                _size[_column[node]]++;
+                _down[_up[node]] = node;
+                _up[_down[node]] = node;
+            }
+        }
+        _right[_left[col]] = col;
+        _left[_right[col]] = col;
+    }
+
+    /**
+     * Algorithm X, choosing the column with the fewest rows.
+     *
+     * @param depth
+     * @return true once a solution has been found (and left in _grid)
+     */
+    private boolean search(int depth) {
+        if (_right[ROOT] == ROOT) {
+            for (int nn = 0; nn < depth; nn++) {
+                int row = _chosen[nn];
+                _grid[row / 9] = row % 9 + 1;
+            }
+            return true;
+        }
+
+        int best = _right[ROOT];
+        for (int col = _right[best]; col != ROOT; col = _right[col])
+            if (_size[col] < _size[best])
+                best = col;
+        if (_size[best] == 0)
+            return false;
+
+        cover(best);
+        for (int row = _down[best]; row != best; row = _down[row]) {
+            _steps++;
+            _chosen[depth] = rowOf(row);
+            for (int node = _right[row]; node != row; node = _right[node])
+                cover(_column[node]);
+            boolean found = search(depth + 1);
+            for (int node = _left[row]; node != row; node = _left[node])
+                uncover(_column[node]);
+            if (found) {
+                uncover(best);
+                return true;
+            }
+        }
+        uncover(best);
+        return false;
+    }
+}
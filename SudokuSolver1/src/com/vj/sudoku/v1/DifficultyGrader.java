@@ -0,0 +1,218 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Grades a puzzle by which of the JasperSolver rules it takes to solve, the
+ * way a person would meet them: the cheapest tier of rules is swept over the
+ * board until it stops making progress, and only then is the next tier
+ * tried.  As soon as a tier makes progress, grading drops back to the first
+ * tier.  A puzzle the rules cannot finish is handed to SearchSolver, and
+ * every value it tries counts as a use of the SEARCH tier.
+ * <br><br>
+ * The grade records, for each tier, how many sweeps it was needed for
+ * (sweeps in which every cheaper tier had stalled and it made progress),
+ * and from that a score.  Each tier is weighted so a single use of a harder
+ * tier outweighs a good many uses of the ones below it.
+ * <br><br>
+ * A grader holds its solvers, so it is not thread safe.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class DifficultyGrader {
+
+    /** The rules, grouped by how hard they are to spot. */
+    public enum Tier {
+        /** checkRowsColsSqrs: a cell with one value left */
+        SINGLES(1),
+        /** checkCanOnlyBeOneSqr, -Row and -Col: a value with one cell left */
+        HIDDEN_SINGLES(3),
+        /** checkThrees: three values locked in a row or column of a square */
+        THREES(10),
+        /** cleanOtherSquares: values locked in a row or column of a square */
+        INTERSECTIONS(20),
+        /** checkNakedSubsets and -Hidden-: pairs, triples and quads */
+        SUBSETS(40),
+        /** checkFish: X-Wings, Swordfish and Jellyfish */
+        FISH(60),
+        /** checkForcing: values tried out with the rules above */
+        FORCING(80),
+        /** SearchSolver: the rules stall and values have to be tried */
+        SEARCH(100);
+
+        private final int _weight;
+
+        Tier(int weight) {
+            _weight = weight;
+        }
+
+        /**
+         * @return how much one use of the tier adds to a score
+         */
+        public int getWeight() {
+            return _weight;
+        }
+    }
+
+    /** The result of grading one puzzle. */
+    public static class Grade {
+        private final long[] _uses;
+        private final boolean _valid;
+
+        Grade(long[] uses, boolean valid) {
+            _uses = uses;
+            _valid = valid;
+        }
+
+        /**
+         * @return how many times tier was needed
+         */
+        public long getUses(Tier tier) {
+            return _uses[tier.ordinal()];
+        }
+
+        /**
+         * @return the hardest tier needed, or null if the givens alone
+         * solve the puzzle
+         */
+        public Tier getHardest() {
+            for (int tt = _uses.length - 1; tt >= 0; tt--)
+                if (_uses[tt] != 0)
+                    return Tier.values()[tt];
+            return null;
+        }
+
+        /**
+         * @return the uses of each tier times its weight, summed
+         */
+        public long getScore() {
+            long score = 0;
+            for (Tier tier : Tier.values())
+                score += tier.getWeight() * _uses[tier.ordinal()];
+            return score;
+        }
+
+        /**
+         * @return false if the puzzle has no solution
+         */
+        public boolean isValid() {
+            return _valid;
+        }
+
+        @Override
+        public String toString() {
+            if (!_valid)
+                return "INVALID";
+            StringBuilder sb = new StringBuilder();
+            sb.append(getScore());
+            for (Tier tier : Tier.values())
+                sb.append(' ').append(tier).append('=').append(_uses[tier.ordinal()]);
+            return sb.toString();
+        }
+    }
+
+    private JasperSolver _js;
+    private final SearchSolver _search = new SearchSolver();
+
+    /**
+     * @param puzzle - 81 values in row order, 0 for blanks
+     * @return its grade
+     */
+    public Grade grade(int[] puzzle) {
+        long[] uses = new long[Tier.values().length];
+        if (!SearchSolver.isConsistent(puzzle))
+            return new Grade(uses, false);
+
+        if (_js == null)
+            _js = new JasperSolver(puzzle);
+        else
+            _js.load(puzzle);
+
+        try {
+            int tier = 0;
+            while (tier < Tier.SEARCH.ordinal() && !isSolved()) {
+                if (sweep(tier)) {
+                    uses[tier]++;
+                    tier = 0;
+                } else {
+                    tier++;
+                }
+            }
+        } catch (JasperSolver.UnsolvableException e) {
+            return new Grade(uses, false);
+        }
+
+        if (!isSolved()) {
+            if (!_search.solve(_js.ssToIntArray()).isSolved())
+                return new Grade(uses, false);
+            uses[Tier.SEARCH.ordinal()] = _search.getNodes();
+        }
+        return new Grade(uses, true);
+    }
+
+    private boolean isSolved() {
+        for (int row = 0; row < 9; row++)
+            for (int col = 0; col < 9; col++)
+                if (_js.getTile(row, col) == 0)
+                    return false;
+        return true;
+    }
+
+    /**
+     * Apply the rules of one tier over the whole board; for SINGLES, keep
+     * sweeping until nothing changes.
+     *
+     * @return true if anything changed
+     */
+    private boolean sweep(int tier) throws JasperSolver.UnsolvableException {
+        JasperSolver js = _js;
+        boolean progress = false;
+        boolean hit;
+        do {
+            hit = false;
+            if (tier == Tier.SUBSETS.ordinal()) {
+                for (int unit = 0; unit < 27; unit++)
+                    hit |= js.checkNakedSubsets(unit) | js.checkHiddenSubsets(unit);
+            } else if (tier == Tier.FISH.ordinal()) {
+                for (int value = 1; value <= 9; value++)
+                    hit |= js.checkFish(value);
+            } else if (tier == Tier.FORCING.ordinal()) {
+                hit = js.checkForcing(Rules.CHECK_FORCING.getTier() - 1);
+            } else {
+                hit = sweepCells(tier);
+            }
+            progress |= hit;
+        } while (hit && tier == Tier.SINGLES.ordinal());
+        return progress;
+    }
+
+    /**
+     * Apply the rules of one tier to each cell (or square) once.
+     *
+     * @return true if anything changed
+     */
+    private boolean sweepCells(int tier) throws JasperSolver.UnsolvableException {
+        JasperSolver js = _js;
+        boolean hit = false;
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                if (tier == Tier.INTERSECTIONS.ordinal()) {
+                    if (row % 3 == 0 && col % 3 == 0)
+                        hit |= js.cleanOtherSquares(row, col);
+                    continue;
+                }
+                if (js.getTile(row, col) != 0)
+                    continue;
+                if (tier == Tier.SINGLES.ordinal()) {
+                    hit |= js.checkRowsColsSqrs(row, col);
+                } else if (tier == Tier.HIDDEN_SINGLES.ordinal()) {
+                    hit |= js.checkCanOnlyBeOneSqr(row, col)
+                            || js.checkCanOnlyBeOneCheckRow(row, col)
+                            || js.checkCanOnlyBeOneCheckCol(row, col);
+                } else {
+                    hit |= js.checkThrees(row, col);
+                }
+            }
+        }
+        return hit;
+    }
+}
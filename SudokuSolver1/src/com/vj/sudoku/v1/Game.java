@@ -14,6 +14,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import java.util.concurrent.Executor;
+
 
 public class Game extends Activity implements Runnable {
 
@@ -27,28 +29,46 @@ public class Game extends Activity implements Runnable {
 	@SuppressWarnings("unused")
 	private String puzz_iniziale = "000000000000000000000000000000000000000000000000000000000000000000000000000000000";
 	// boolean sulla consistenza
-	// array per il caching delle celle usate *** used cells
-	private final int used[][][] = new int[9][9][];
+	// valori usati in ogni riga, colonna e blocco *** values used in each row, column and square
+	private final ConstraintIndex used = new ConstraintIndex();
     // contatore di backtrack per la soluzione
 	private int backtrack;
-    private boolean first;
     private ProgressDialog pd;
+    // aggiorna la progress bar al massimo 10 volte al secondo *** updates the progress bar at most 10 times a second
+    private ProgressReporter progress;
     private JasperSolver _js = null;
 
+    // route JasperSolver debugging output to logcat
+    private static final SolverLog logcat = new SolverLog() {
+        public void println(String string) {
+            Log.d("J-SUD", string);
+        }
+    };
+
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+		JasperSolver.setLog(logcat);
 		puzzle = getPuzzle();
-		calculateUsedTiles();
+		used.load(puzzle);
+
+		progress = new ProgressReporter(new Executor() {
+			public void execute(Runnable command) {
+				handler.post(command);
+			}
+		}, new ProgressReporter.Listener() {
+			public void onProgress(long value) {
+				if (pd != null)
+					pd.setMessage("backtracking: " + value);
+			}
+		}, 100, 256);
 
 		puzzleView = new PuzzleView(this);
 		setContentView(puzzleView);
 		puzzleView.requestFocus();
 
-		first=true;
-
 	}
 
 	// menu
@@ -82,8 +102,8 @@ public class Game extends Activity implements Runnable {
     		puzzle = getEmptyPuzzle();
     		// ridisegna lo schermo
     		puzzleView.invalidate();
-    		// pulisci l'array delle celle usate
-    		calculateUsedTiles();
+    		// pulisci l'indice delle celle usate
+    		used.load(puzzle);
     		return true;
 
 
@@ -113,24 +133,23 @@ public class Game extends Activity implements Runnable {
         } catch (Exception e) {
             e.printStackTrace();
             Log.d("JasperSudoku", e.getMessage());
+            return false;
         }
 
+        if (!is_Solved()) {
+            // the rules stalled, so finish with a search that branches on
+            // the cell with the fewest remains
+            SearchSolver search = new SearchSolver();
+            search.setProgress(progress);
+            SolveResult result = search.solve(puzzle);
+            backtrack = (int) search.getNodes();
+            if (result.isSolved())
+                puzzle = result.getGrid();
+        }
 
         return is_Solved();
     }
 
-//        showToastShort("Jasper processing done");
-//
-//        // ** IF YOUR METHOD FAILS TO SOLVE THE SUDOKU, USE MY BACKTRACK
-//        // ALGORITHM ***
-//        if (!is_Solved()) {
-//		   // if sudoku wasn't solved, use backtrack algorithm
-//		   return backtrack(0, 0);
-//	   }
-//
-//       return false;
-//   }
-
 
    private boolean backtrack(int i, int j) {
 
@@ -145,20 +164,11 @@ public class Game extends Activity implements Runnable {
 	   // se la cella  riempita, saltala *** if cell is not empty, ignore it
         if (getTile(i, j) != 0) {
         	return backtrack(i+1, j);
-        } else {
-        	// se  la prima casella da riempire, salva le coordinate *** if this is the first cell to fill, save the coords
-        	if(first) {
-        		calculateUsedTiles();
-        		first=false;
-
-        	}
-
         }
 
         // riempimento celle bruteforce+backtracking
         for(int x=1; x <= 9; x++) {
 
-        	calculateUsedTiles(i, j);
         	if(setTileIfValid(i, j, x)) {
 
  					if (backtrack(i + 1, j)) {
@@ -171,7 +181,7 @@ public class Game extends Activity implements Runnable {
         backtrack++;
         setTile(i, j, 0);
         // visualizza numero backtrack sulla progress bar
-        handler.sendEmptyMessage(backtrack);
+        progress.report(backtrack);
 
         return false;
 
@@ -215,76 +225,14 @@ public class Game extends Activity implements Runnable {
 	// sets the value of the cell only it is valid
 	protected boolean setTileIfValid(int x, int y, int value) {
 
-		int tiles[] = getUsedTiles(x, y);
-		if(value != 0) {
-			for(int tile : tiles) {
-				if(tile == value) return false;
-			}
-		}
+		if(value != 0 && Candidates.contains(used.getUsed(y*9 + x, getTile(x, y)), value))
+			return false;
 		setTile(x, y, value);
-		calculateUsedTiles();
 		return true;
 	}
 
 	protected int[] getUsedTiles(int x, int y) {
-		return used[x][y];
-	}
-
-	// lancia il calcolo delle celle usate per ognuna
-
-	private void calculateUsedTiles() {
-		for(int x=0; x<9; x++) {
-			for(int y=0; y<9; y++) {
-				used[x][y] = calculateUsedTiles(x, y);
-
-			}
-		}
-	}
-
-	// controllo celle usate
-	private int[] calculateUsedTiles(int x, int y) {
-		int c[] = new int[9];
-
-		// orizzonali
-		for(int i=0; i<9; i++) {
-			if(i == y) continue;
-			int t = getTile(x, i);
-			if(t!=0) c[t-1] = t;
-		}
-
-		// verticali
-		for(int i=0; i<9; i++) {
-			if(i==x) continue;
-			int t = getTile(i, y);
-			if(t!=0) c[t-1] = t;
-
-		}
-
-		// stesso blocco 3x3
-		int startx = (x/3) *3;
-		int starty = (y/3) *3;
-
-		for(int i = startx; i<startx+3; i++) {
-			for(int j = starty; j< starty+3; j++) {
-				if(i==x && j==y) continue;
-				int t = getTile(i, j);
-				if(t!=0) c[t-1]= t;
-			}
-		}
-
-		// elimino gli zeri in modo da poter usare il lenght() sull'array
-		int nused = 0;
-		for(int t : c) {
-			if(t!=0) nused++;
-		}
-
-		int c1[] = new int[nused];
-		nused = 0;
-		for (int t : c) {
-			if(t!=0) c1[nused++] = t;
-		}
-
-		return c1;
+		return ConstraintIndex.values(used.getUsed(y*9 + x, getTile(x, y)));
 	}
 
 	private int getTile(int x, int y) {
@@ -292,8 +240,8 @@ public class Game extends Activity implements Runnable {
 	}
 
 	private void setTile( int x, int y, int value) {
+		used.set(y*9 + x, puzzle[y*9 + x], value);
 		puzzle[y*9 + x] = value;
-		calculateUsedTiles();
 	}
 
 	private int[] getPuzzle() {
@@ -342,11 +290,11 @@ public class Game extends Activity implements Runnable {
 
 			if(msg.what==0) {
 				pd.dismiss();
+				used.load(puzzle);
 				puzzleView.invalidate();
 				if( is_Solved() ) showToastShort( getString(R.string.result) +" "+backtrack);
 				else showToastShort( getString(R.string.noresult) +" "+backtrack);
-			} else
-				pd.setMessage("backtracking: "+backtrack);
+			}
 		}
 	};
 
@@ -0,0 +1,182 @@
+package com.vj.sudoku.v1;
+
+/**
+ * The shape of a board made of box x box squares: box*box rows, columns and
+ * squares of box*box cells each, holding the values 1 to box*box.  The
+ * standard board is box 3.
+ * <br><br>
+ * Which cells make up each unit, which units each cell is in, and each
+ * cell's peers are worked out once, when the geometry is first asked for,
+ * so solvers look them up instead of doing the row, column and square
+ * arithmetic.  Units 0 to size-1 are the rows, size to 2*size-1 the columns
+ * and 2*size to 3*size-1 the squares.  A cell's candidates fit in a long,
+ * one bit per value (bit val-1).  In the one line text form each value is a
+ * single character, '1'-'9' then 'A'-'Z' then 'a'-'z', which is what bounds
+ * the box at 7.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class Geometry {
+
+    public static final int MIN_BOX = 2;
+    public static final int MAX_BOX = 7;
+
+    private static final String SYMBOLS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    // the value of each ASCII character, -1 for those that are not values
+    private static final byte[] VALUES = new byte[128];
+    static {
+        for (int ch = 0; ch < VALUES.length; ch++)
+            VALUES[ch] = (byte) (ch == '.' ? 0 : SYMBOLS.indexOf(ch));
+    }
+
+    private static final Geometry[] BOXES = new Geometry[MAX_BOX + 1];
+
+    /** the standard 9x9 board */
+    public static final Geometry STANDARD = of(3);
+
+    private final int _box;
+    private final int _size;
+    private final int _cells;
+    private final long _all;
+
+    private final int[][] _unitCells;
+    private final int[][] _cellUnits;
+    private final int[][] _peers;
+
+    private Geometry(int box) {
+        _box = box;
+        _size = box * box;
+        _cells = _size * _size;
+        _all = (1L << _size) - 1;
+
+        _unitCells = new int[3 * _size][_size];
+        _cellUnits = new int[_cells][3];
+        int[] filled = new int[3 * _size];
+        for (int cell = 0; cell < _cells; cell++) {
+            int row = cell / _size;
+            int col = cell % _size;
+            int[] units = _cellUnits[cell];
+            units[0] = row;
+            units[1] = _size + col;
+            units[2] = 2 * _size + (row / box) * box + col / box;
+            for (int unit : units)
+                _unitCells[unit][filled[unit]++] = cell;
+        }
+
+        // a cell's peers: its row and column, and the rest of its square
+        int count = 3 * (_size - 1) - 2 * (box - 1);
+        _peers = new int[_cells][count];
+        for (int cell = 0; cell < _cells; cell++) {
+            int nn = 0;
+            for (int other = 0; other < _cells; other++) {
+                if (other != cell && (row(other) == row(cell) || col(other) == col(cell)
+                        || _cellUnits[other][2] == _cellUnits[cell][2]))
+                    _peers[cell][nn++] = other;
+            }
+        }
+    }
+
+    /**
+     * @param box - the side of a square, MIN_BOX to MAX_BOX
+     * @return the geometry of boards with that size of square
+     */
+    public static Geometry of(int box) {
+        if (box < MIN_BOX || box > MAX_BOX)
+            throw new IllegalArgumentException("box " + box);
+        synchronized (BOXES) {
+            if (BOXES[box] == null)
+                BOXES[box] = new Geometry(box);
+            return BOXES[box];
+        }
+    }
+
+    /**
+     * @param cells - the number of cells on a board
+     * @return its geometry, or null if no board has that many
+     */
+    public static Geometry forCells(int cells) {
+        for (int box = MIN_BOX; box <= MAX_BOX; box++)
+            if (box * box * box * box == cells)
+                return of(box);
+        return null;
+    }
+
+    /** @return the side of a square */
+    public int getBox() {
+        return _box;
+    }
+
+    /** @return the number of cells in a unit, and the largest value */
+    public int getSize() {
+        return _size;
+    }
+
+    public int getCells() {
+        return _cells;
+    }
+
+    /** @return the number of units: rows, then columns, then squares */
+    public int getUnits() {
+        return 3 * _size;
+    }
+
+    /** @return the candidate mask holding every value */
+    public long getAll() {
+        return _all;
+    }
+
+    public int row(int cell) {
+        return cell / _size;
+    }
+
+    public int col(int cell) {
+        return cell % _size;
+    }
+
+    /**
+     * @return the cells of the unit, in row order; shared, so must not be
+     * changed
+     */
+    public int[] getUnitCells(int unit) {
+        return _unitCells[unit];
+    }
+
+    /**
+     * @return the cell's row, column and square units; shared, so must not
+     * be changed
+     */
+    public int[] getCellUnits(int cell) {
+        return _cellUnits[cell];
+    }
+
+    /**
+     * @return the other cells in the cell's row, column and square; shared,
+     * so must not be changed
+     */
+    public int[] getPeers(int cell) {
+        return _peers[cell];
+    }
+
+    /**
+     * @param val - 0 to getSize()
+     * @return the character for the value, '0' for a blank
+     */
+    public static char symbol(int val) {
+        return SYMBOLS.charAt(val);
+    }
+
+    /**
+     * @param ch
+     * @return the value of the character, 0 for '0' or '.', or -1 if it is
+     * not a value on this board
+     */
+    public int valueOf(int ch) {
+        if (ch < 0 || ch >= VALUES.length)
+            return -1;
+        int val = VALUES[ch];
+        return val <= _size ? val : -1;
+    }
+}
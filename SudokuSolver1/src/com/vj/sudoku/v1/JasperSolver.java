@@ -1,17 +1,18 @@
 package com.vj.sudoku.v1;
 
-import java.util.TreeSet;
-
-import android.util.Log;
-
 /**
  * Implements a way to hold Sudoku puzzles, and solve them, using only
  * a short list of rules (as opposed to a brute force search for solutions).
- * The solution algorithm is to iteratively pass through each cell of a
- * puzzle, applying the rules to see if possibilities can be eliminated, doing so
+ * The solution algorithm is to iteratively apply the rules to the cells of a
+ * puzzle to see if possibilities can be eliminated, doing so
  * until the puzzle is no longer changing (or is discovered to be invalid).
+ * Rather than sweeping the whole grid each time, the solver keeps a worklist:
+ * whenever a cell's remains change, the cells in its row, column and
+ * subsquare are queued to have the rules applied again, and its subsquare is
+ * marked for the inter-square logic.
  * <br><br>
- * Each cell has a "remains" set, contains the possibilities for that cell.
+ * Each cell has a "remains" set, contains the possibilities for that cell
+ * (held as a 9-bit mask, see {@link Candidates}).
  * There are some basic rules used to whittle the remains set down, as follows:
  * <ul>
  * <li>If a cell contains a single value, remove that value from the remains
@@ -21,6 +22,18 @@ import android.util.Log;
  * of an 3x3 square, those three values must go in that row or column,
  * and we can eliminate those possibilities for all cells in other rows
  * of this square and of all cells in this same row in other squares.
+ * <li>If n cells of a row, column or square (n = 2, 3 or 4) have just n
+ * possibilities between them, no other cell of it can have any of them
+ * (a naked pair, triple or quad); and if n possibilities can only go in n of
+ * its cells, those cells can have no others (a hidden one).
+ * <li>If a value can only go in n columns (n = 2, 3 or 4) of n rows, it goes
+ * in those columns in those rows, so no other cell of the columns can have
+ * it (an X-Wing, Swordfish or Jellyfish); and the same with rows and columns
+ * swapped.
+ * <li>Failing all else, assume each value of a cell in turn and run the
+ * rules above on the result: a value that leads to a contradiction is
+ * removed, and anything that follows from every value of the cell (or from
+ * every place a value can go in a row, column or square) is taken as found.
  * <li>Given the corners of a 3x3 square, run some inter-square logic:
  * <br>Check each [1 x 3] row for values that are only in that row
  * and remove them from other square's row.
@@ -33,10 +46,28 @@ import android.util.Log;
  * Whenever any of the rules reduces a cell to just a single number, that value
  * can be eliminated from the remains for other row, columns and subsquares.
  * <br><br>
- * The algorithm stops iterating when no further changes are detected, and
+ * Each rule is a Rule object (see Rules), so others can be added with
+ * setRules().  The cell rules are applied to each cell taken off the
+ * worklist; the inter-square logic, and any other rule that looks over the
+ * whole board, is only tried once the worklist is empty, and the solver
+ * goes back to the worklist as soon as one of them changes anything.
+ * A RuleScheduler decides the order the rules are tried in.
+ * <br><br>
+ * The algorithm stops iterating when the worklist is empty and no rule can
+ * change anything, and
  * the puzzle is either solved or not solvable with these rules (or was
  * determined to be invalid and an exception thrown).
  * <br><br>
+ * For searching, mark() starts a trail: from then on every placement and
+ * every removal from a cell's remains is logged, and undo() rolls the state
+ * back to the mark by replaying the log backwards.  Trying a value costs
+ * only the changes it makes, rather than a copy of the whole state.
+ * <br><br>
+ * The values placed are also kept as a Zobrist hash: the exclusive or of a
+ * fixed random number per cell and value, updated with each placement and
+ * undo, so that a search can recognise placements it has met before (see
+ * TranspositionTable) without comparing grids.
+ * <br><br>
  * @author Jasper Lieber
  *
  */
@@ -44,174 +75,410 @@ public class JasperSolver {
 
     private static final boolean _debugEnabled = false;
 
-    /**
-     * SSet implements set operations on the integers 1-9.
-     * Note that this implementation is quite heavy but is quick & easy.
-     *
-     */
-    private class SSet extends TreeSet<Integer> {
+    private static SolverLog _log = SolverLog.STDERR;
+
+    public class UnsolvableException extends Exception
+    {
         private static final long serialVersionUID = 1L;
+        public UnsolvableException(String str)
+        {
+            super(str);
+        }
+    }
 
-        /**
-         * Construct a SSet, either empty or full of 1-9.
-         * @param fill if true, populate the set with 1-9
-         */
-        public SSet(boolean fill) {
-            super();
-            if (fill)
-                for (int val=1; val < 10; val++)
-                    this.add(val);
-        }
-
-        /**
-         * Construct a SSet with the one value in it
-         * @param value the one value to place in the SSet
-         */
-        public SSet(Integer value) {
-            super();
-            this.add(value);
-        }
-
-        /**
-         * Construct a SSet, and add all the values of the passed set.
-         * @param sset a set of values to add to the new set
-         */
-        public SSet(SSet sset) {
-            super();
-            this.addAll(sset);
-        }
-
-        /**
-         * Return the size of the SSet.  I had to override this method because
-         * super.size() is returning wrong values when running the
-         * Android emulator.  (This did not occur with my original
-         * Java app version.)
-         */
-        @Override
-        public int size() {
-
-            int cnt = 0;
-            for (int val=1; val < 10; val++)
-                if ( this.contains( val )) cnt++;
-
-            // TODO - the following illustrates strangeness on my system
-            if (cnt != super.size())
-            {
-                println("craziness!  android java bug?  this = " + this.toString() +
-                        ", and cnt = " + cnt +
-                        ", and super.size() = " + super.size() +
-                        ".   why different?");
-            }
-            return cnt;
 
+    private int m_steps = 0;
+
+    // cells are indexed row*9 + col; squares are indexed (row/3)*3 + col/3
+    private final int[]     _puzzle = new int[9*9];
+
+    // the Zobrist hash of _puzzle: the exclusive or of ZOBRIST[cell*9 + val-1]
+    // over the placed cells
+    private long            _hash = 0;
+    private static final long[] ZOBRIST = new long[9*9*9];
+    static {
+        // splitmix64, from a fixed seed so hashes are the same every run
+        long seed = 0x5EED5D0C0L;
+        for (int nn = 0; nn < ZOBRIST.length; nn++) {
+            long zz = seed += 0x9E3779B97F4A7C15L;
+            zz = (zz ^ (zz >>> 30)) * 0xBF58476D1CE4E5B9L;
+            zz = (zz ^ (zz >>> 27)) * 0x94D049BB133111EBL;
+            ZOBRIST[nn] = zz ^ (zz >>> 31);
         }
+    }
 
-        /**
-         * Return a pretty printed String of values in the SSet
-         */
-        @Override
-        public String toString() {
-            StringBuffer str = new StringBuffer(9);
-            for (int val=1; val < 10; val++)
-                str.append(this.contains(val) ? val : "-");
-            return str.toString();
+    // candidate masks, see Candidates
+    private final short[]   _rowSets = new short[9];
+    private final short[]   _colSets = new short[9];
+    private final short[]   _sqrSets = new short[9];
+    private final short[]   _remains = new short[9*9];
+
+    // the worklist: a bit per cell waiting to have the rules applied, the
+    // cell to look from next, and a bit per square waiting for cleanOtherSquares
+    private final long[]    _pending = new long[2];
+    private int             _cursor = 0;
+    private int             _dirtySqrs = 0;
+    // a bit per unit changed since the naked subset rule last looked at it
+    // (bits 0-26), and the same for the hidden subset rule (bits 32-58)
+    private long            _subsetUnits = 0;
+    private static final long NAKED_UNITS = (1L << 27) - 1;
+    private static final long HIDDEN_UNITS = NAKED_UNITS << 32;
+    // a bit per value (as in remains) whose cells have changed since
+    // checkFish last looked at it
+    private int             _dirtyVals = 0;
+
+    // the cells of each unit: rows are units 0-8, columns 9-17 and squares
+    // 18-26; and for each cell its three units, as bits for _subsetUnits
+    private static final int[][] UNITS = new int[27][9];
+    private static final long[] CELL_UNITS = new long[9*9];
+    static {
+        for (int cell = 0; cell < 9*9; cell++) {
+            int row = cell / 9;
+            int col = cell % 9;
+            int sqr = sqr(row, col);
+            UNITS[row][col] = cell;
+            UNITS[9 + col][row] = cell;
+            UNITS[18 + sqr][(row % 3) * 3 + col % 3] = cell;
+            long bits = 1L << row | 1L << (9 + col) | 1L << (18 + sqr);
+            CELL_UNITS[cell] = bits | bits << 32;
         }
+    }
 
+    // for each 9-bit mask: the bits set in it; and, at SUBSETS[n][mask],
+    // its submasks with n bits set (n = 2, 3 or 4), which are the sets of
+    // cells (or values, or lines) to try as subsets and fish of size n when
+    // mask holds those that could be in one
+    private static final int MAX_SUBSET = 4;
+    private static final int[][] BITS = new int[1 << 9][];
+    private static final int[][][] SUBSETS = new int[MAX_SUBSET + 1][1 << 9][];
+    static {
+        int[] subsets = new int[126];
+        for (int mask = 0; mask < 1 << 9; mask++) {
+            BITS[mask] = new int[Candidates.count(mask)];
+            int kk = 0;
+            for (int bit = 0; bit < 9; bit++)
+                if ((mask & 1 << bit) != 0)
+                    BITS[mask][kk++] = bit;
+            for (int size = 2; size <= MAX_SUBSET; size++) {
+                int nn = 0;
+                for (int sub = mask; sub != 0; sub = (sub - 1) & mask)
+                    if (Candidates.count(sub) == size)
+                        subsets[nn++] = sub;
+                SUBSETS[size][mask] = new int[nn];
+                System.arraycopy(subsets, 0, SUBSETS[size][mask], 0, nn);
+            }
+        }
     }
 
-    public class UnsolvableException extends Exception
-    {
-        private static final long serialVersionUID = 1L;
-        public UnsolvableException(String str)
-        {
-            super(str);
+    // the 20 other cells in each cell's row, column and square
+    private static final int[][] PEERS = new int[9*9][];
+    static {
+        for (int cell = 0; cell < 9*9; cell++) {
+            int row = cell / 9;
+            int col = cell % 9;
+            PEERS[cell] = new int[20];
+            int nn = 0;
+            for (int other = 0; other < 9*9; other++) {
+                int oRow = other / 9;
+                int oCol = other % 9;
+                if (other != cell && (oRow == row || oCol == col
+                        || sqr(oRow, oCol) == sqr(row, col)))
+                    PEERS[cell][nn++] = other;
+            }
         }
     }
 
-    private static final boolean FILLED = true;
-    private static final boolean EMPTY = false;
+    // scratch space for cleanOtherSquares, so it does not allocate
+    private final int[]     _rowRemains = new int[3];
+    private final int[]     _colRemains = new int[3];
+    // and for checkHiddenSubsets and checkFish: at unit*9 + (val-1), the
+    // cells of the unit val can go in, as bits by their place in UNITS;
+    // filled in a unit at a time by findPlaces()
+    private final short[]   _places = new short[27*9];
+    // and for checkForcing: whether each assumption (cell*9 + val-1) has
+    // been probed during this call, and if it held, the remains it led to,
+    // at that index times 81 (allocated when a probe first holds)
+    private static final byte PROBED = 1;
+    private static final byte FAILED = 2;
+    private final byte[]    _probed = new byte[9*9*9];
+    private short[]         _probeRemains = null;
+    private final short[]   _union = new short[9*9];
+
+    // per-rule counters, or null; and the rule now running, or -1
+    private RuleStats       _stats = null;
+    private int             _rule = -1;
+
+    // the rules and the order to try them in; and the candidates removed
+    // plus the cells placed so far, for the scheduler to measure rules by
+    private RuleScheduler   _scheduler;
+    private long            _changes = 0;
+
+    // the trail: one entry per change made since the first open mark, each
+    // (cell << 10) | PLACED if it was a placement | the cell's old remains.
+    // A cell is placed once, and each removal takes at least one value from
+    // its remains, so it gets at most 9 removals before it is placed and 1
+    // after: no more than 11 entries per cell.
+    private static final int PLACED = 1 << 9;
+    private final int[]     _trail = new int[9*9*11];
+    private int             _trailTop = 0;
+
+    // the open marks: where each starts on the trail, and the worklist then
+    private static final int MAX_MARKS = 9*9 + 1;
+    private int             _marks = 0;
+    private final int[]     _markTrail = new int[MAX_MARKS];
+    private final long[]    _markPending = new long[2 * MAX_MARKS];
+    private final int[]     _markCursor = new int[MAX_MARKS];
+    private final int[]     _markDirtySqrs = new int[MAX_MARKS];
+    private final long[]    _markSubsetUnits = new long[MAX_MARKS];
+    private final int[]     _markDirtyVals = new int[MAX_MARKS];
 
 
-    private int m_steps = 0;
+    public JasperSolver( int[] puzzle ) {
+        _scheduler = new RuleScheduler(Rules.standard());
+        load(puzzle);
+    }
 
-    private final int[][]   _puzzle = new int[9][9];
+    /**
+     * Construct a solver in the same state as another one.
+     *
+     * @param other
+     */
+    JasperSolver( JasperSolver other ) {
+        _stats = other._stats;
+        _scheduler = new RuleScheduler(other._scheduler);
+        copyFrom(other);
+    }
 
-    private final SSet[]    _rowSets = new SSet[9];
-    private final SSet[]    _colSets = new SSet[9];
-    private final SSet[][]  _sqrSets = new SSet[3][3];
-    private final SSet[]    _solos = new SSet[10];
-    private final SSet[][]  _remains = new SSet[9][9];
+    /**
+     * Use these rules from now on, instead of Rules.standard().  Solvers
+     * constructed from this one use the same ones.
+     *
+     * @param rules
+     */
+    void setRules(Rule[] rules) {
+        _scheduler = new RuleScheduler(rules);
+    }
 
+    /**
+     * @return the rules in use
+     */
+    Rule[] getRules() {
+        return _scheduler.getRules();
+    }
 
-    private JasperSolver() {
-        for (int row = 0; row < 9; row++)
-            for (int col = 0; col < 9; col++) {
-                _puzzle[row][col] = 0;
-                _remains[row][col] = new SSet(FILLED);
-            }
+    /**
+     * @return the number of candidates removed plus the number of cells
+     * placed, since the solver was made
+     */
+    long getChanges() {
+        return _changes;
+    }
 
+    /**
+     * Count what each rule does from now on, or stop counting.  Solvers
+     * constructed from this one count into the same stats.
+     *
+     * @param stats - the counters to add to, or null
+     */
+    void setStats(RuleStats stats) {
+        _stats = stats;
+    }
 
-        for (int row = 0; row < 9; row++) {
-            _rowSets[row] = new SSet(FILLED);
-            _colSets[row] = new SSet(FILLED);
-            _solos[row+1] = new SSet(row+1);
+    /**
+     * Start this solver over on a new puzzle, without allocating.
+     *
+     * @param puzzle - 81 values in row order, 0 for blanks
+     */
+    void load(int[] puzzle) {
+        for (int cell = 0; cell < 9*9; cell++) {
+            _puzzle[cell] = 0;
+            _remains[cell] = (short) Candidates.ALL;
         }
 
-        for (int row = 0; row < 3; row++)
-            for (int col = 0; col < 3; col++)
-                _sqrSets[row][col] = new SSet(FILLED);
+        for (int nn = 0; nn < 9; nn++) {
+            _rowSets[nn] = (short) Candidates.ALL;
+            _colSets[nn] = (short) Candidates.ALL;
+            _sqrSets[nn] = (short) Candidates.ALL;
+        }
 
         m_steps = 0;
-    }
+        _hash = 0;
+        _trailTop = 0;
+        _marks = 0;
+        _scheduler.reorder();
 
-    public JasperSolver( int[] puzzle ) {
-        this();
         for (int row = 0; row < 9; row++)
             for (int col = 0; col < 9; col++) {
                 int value = puzzle[ row*9 + col ];
-                if ( value != 0 ) {
-                    _puzzle[row][col] = value;
-                    _remains[row][col] = _solos[value];
-                    _rowSets[row].remove(value);
-                    _colSets[col].remove(value);
-                    _sqrSets[row/3][col/3].remove(value);
-                }
+                if ( value != 0 )
+                    processDiscovery(row, col, value);
             }
+
+        // start with everything on the worklist
+        _pending[0] = -1L;
+        _pending[1] = (1L << (9*9 - 64)) - 1;
+        _cursor = 0;
+        _dirtySqrs = (1 << 9) - 1;
+        _subsetUnits = NAKED_UNITS | HIDDEN_UNITS;
+        _dirtyVals = Candidates.ALL;
+    }
+
+    private static int sqr(int row, int col) {
+        return (row/3)*3 + col/3;
+    }
+
+    /**
+     * Put this solver in the same state as another one, without allocating.
+     * The rule methods are package-private as well, so that SolverBenchmark
+     * can time each one from a fixed board state.
+     *
+     * @param other
+     */
+    void copyFrom(JasperSolver other) {
+        System.arraycopy(other._puzzle, 0, _puzzle, 0, 9*9);
+        System.arraycopy(other._remains, 0, _remains, 0, 9*9);
+        System.arraycopy(other._rowSets, 0, _rowSets, 0, 9);
+        System.arraycopy(other._colSets, 0, _colSets, 0, 9);
+        System.arraycopy(other._sqrSets, 0, _sqrSets, 0, 9);
+        _pending[0] = other._pending[0];
+        _pending[1] = other._pending[1];
+        _cursor = other._cursor;
+        _dirtySqrs = other._dirtySqrs;
+        _subsetUnits = other._subsetUnits;
+        _dirtyVals = other._dirtyVals;
+        m_steps = other.m_steps;
+        _hash = other._hash;
+        _trailTop = 0;
+        _marks = 0;
+    }
+
+    /**
+     * Mark the current state, so that undo() can come back to it.  Marks
+     * nest: each one must be released, innermost first.
+     *
+     * @return the mark, to hand to undo() and release()
+     */
+    int mark() {
+        int mark = _marks++;
+        _markTrail[mark] = _trailTop;
+        _markPending[2*mark] = _pending[0];
+        _markPending[2*mark + 1] = _pending[1];
+        _markCursor[mark] = _cursor;
+        _markDirtySqrs[mark] = _dirtySqrs;
+        _markSubsetUnits[mark] = _subsetUnits;
+        _markDirtyVals[mark] = _dirtyVals;
+        return mark;
+    }
+
+    /**
+     * Put the state back as it was when mark was made.  The mark stays
+     * open, and any made after it are released.
+     *
+     * @param mark
+     */
+    void undo(int mark) {
+        int bottom = _markTrail[mark];
+        while (_trailTop > bottom) {
+            int entry = _trail[--_trailTop];
+            int cell = entry >>> 10;
+            if ((entry & PLACED) != 0) {
+                int bit = Candidates.bit(_puzzle[cell]);
+                int row = cell / 9;
+                int col = cell % 9;
+                _rowSets[row] |= bit;
+                _colSets[col] |= bit;
+                _sqrSets[sqr(row, col)] |= bit;
+                _hash ^= ZOBRIST[cell*9 + _puzzle[cell] - 1];
+                _puzzle[cell] = 0;
+            }
+            _remains[cell] = (short) (entry & Candidates.ALL);
+        }
+        _pending[0] = _markPending[2*mark];
+        _pending[1] = _markPending[2*mark + 1];
+        _cursor = _markCursor[mark];
+        _dirtySqrs = _markDirtySqrs[mark];
+        _subsetUnits = _markSubsetUnits[mark];
+        _dirtyVals = _markDirtyVals[mark];
+        _marks = mark + 1;
+    }
+
+    /**
+     * Close mark (and any made after it) without undoing anything.  The
+     * changes since it stay on the trail, so an enclosing mark still
+     * undoes them.
+     *
+     * @param mark
+     */
+    void release(int mark) {
+        _marks = mark;
+        if (mark == 0)
+            _trailTop = 0;
+    }
+
+    /**
+     * @return the Zobrist hash of the values placed; the same for the same
+     * values placed, whatever the puzzle and however they were found
+     */
+    long getHash() {
+        return _hash;
+    }
+
+    /**
+     * @param cell - row*9 + col
+     * @param val
+     * @return what placing val at cell adds to (or, exclusive or-ed again,
+     * takes from) getHash()
+     */
+    static long hashOf(int cell, int val) {
+        return ZOBRIST[cell*9 + val - 1];
+    }
+
+    /**
+     * @return the value placed at row & col, or 0
+     */
+    int getTile(int row, int col) {
+        return _puzzle[row*9 + col];
     }
 
+    /**
+     * @return the remains mask for row & col, see Candidates
+     */
+    int getRemains(int row, int col) {
+        return _remains[row*9 + col];
+    }
 
-    private int[] ssToIntArray() {
+    int[] ssToIntArray() {
         int puzzle[] = new int[9*9];
-        for (int row = 0; row < 9; row++)
-            for (int col = 0; col < 9; col++)
-                puzzle[ row*9 + col ] = _puzzle[row][col];
+        System.arraycopy(_puzzle, 0, puzzle, 0, 9*9);
         return puzzle;
     }
 
     private void verify(){
-		SSet sset = null;
+		int seen;
 
 		try {
 			for (int row = 0; row < 9; row++) {
-				sset = new SSet(EMPTY);
+				seen = Candidates.NONE;
 				for (int col = 0; col < 9; col++) {
-					if (_puzzle[row][col] != 0) {
-						if (sset.contains(_puzzle[row][col]))
+					int val = _puzzle[row*9 + col];
+					if (val != 0) {
+						if (Candidates.contains(seen, val))
 								throw new Exception("verify failed - step #" + m_steps
 										+ " [row col] = " + (row+1) + " " + (col+1));
-						sset.add(_puzzle[row][col]);
+						seen |= Candidates.bit(val);
 					}
 				}
 			}
 
 			for (int col = 0; col < 9; col++) {
-				sset = new SSet(EMPTY);
+				seen = Candidates.NONE;
 				for (int row = 0; row < 9; row++) {
-					if (_puzzle[row][col] != 0) {
-						if (sset.contains(_puzzle[row][col]))
+					int val = _puzzle[row*9 + col];
+					if (val != 0) {
+						if (Candidates.contains(seen, val))
 							throw new Exception("verify failed - step #" + m_steps
 									+ " [col row] = " + col + " " + row);
-						sset.add(_puzzle[row][col]);
+						seen |= Candidates.bit(val);
 					}
 				}
 			}
@@ -229,7 +496,7 @@ public class JasperSolver {
         String out = "";
         for (int row = 0; row < 9; row++) {
             for (int col = 0; col < 9; col++)
-                out += ((_puzzle[row][col]==0 ? "-" : _puzzle[row][col]) + " ");
+                out += ((_puzzle[row*9 + col]==0 ? "-" : _puzzle[row*9 + col]) + " ");
             println(out);
             out = "";
         }
@@ -254,25 +521,11 @@ public class JasperSolver {
 
             out += ("          ");
             for (int col = 0; col < 9; col++)
-                out += (_remains[row][col] + ((col == 2 || col == 5) ? "||" : "  "));
+                out += (Candidates.toString(_remains[row*9 + col]) + ((col == 2 || col == 5) ? "||" : "  "));
             println(out);
             out = "";
         }
         println("");
-
-//      print("\nsets:\n          ");
-//      for (int col = 0; col < 9; col++)
-//          print(colSets[col] + "  ");
-//      println();
-//      for (int row = 0; row < 9; row++) {
-//          print(rowSets[row]);
-//          if ((row - 1) % 3 == 0) {
-//              for (int col = 0; col < 3; col++)
-//                  print("           " + sqrSets[row/3][col] + "          ");
-//          }
-//          println();
-//      }
-//      println();
     }
 
 
@@ -290,11 +543,107 @@ public class JasperSolver {
 //			printPuzzle();
 //			printRemains();
 //		}
-        _rowSets[row].remove(val);
-        _colSets[col].remove(val);
-        _sqrSets[row/3][col/3].remove(val);
-        _puzzle[row][col] = val;
-        _remains[row][col] = new SSet(val);
+        int bit = Candidates.bit(val);
+        if (_marks != 0)
+            _trail[_trailTop++] = (row*9 + col) << 10 | PLACED | _remains[row*9 + col];
+        _rowSets[row] &= ~bit;
+        _colSets[col] &= ~bit;
+        _sqrSets[sqr(row, col)] &= ~bit;
+        _puzzle[row*9 + col] = val;
+        _hash ^= ZOBRIST[(row*9 + col)*9 + val - 1];
+        _dirtyVals |= _remains[row*9 + col];
+        _remains[row*9 + col] = (short) bit;
+        _changes++;
+        changed(row*9 + col);
+    }
+
+    /**
+     * The remains of a cell have changed, so queue it and its row, column
+     * and square to have the rules applied again.
+     *
+     * @param cell
+     */
+    private void changed(int cell) {
+        _pending[cell >> 6] |= 1L << cell;
+        int[] peers = PEERS[cell];
+        for (int nn = 0; nn < peers.length; nn++)
+            _pending[peers[nn] >> 6] |= 1L << peers[nn];
+        _dirtySqrs |= 1 << sqr(cell / 9, cell % 9);
+        _subsetUnits |= CELL_UNITS[cell];
+    }
+
+    /**
+     * Take the next cell off the worklist, looking onward from the last one
+     * taken so the grid is visited in sweeps, as the rules used to be.
+     *
+     * @return the cell, or -1 if the worklist is empty
+     */
+    private int nextPending() {
+        int word = _cursor >> 6;
+        long bits = _pending[word] & (-1L << _cursor);
+        for (int nn = 0; nn <= _pending.length; nn++) {
+            if (bits != 0) {
+                int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                _pending[word] &= ~(1L << cell);
+                _cursor = cell + 1 == 9*9 ? 0 : cell + 1;
+                return cell;
+            }
+            word = word + 1 == _pending.length ? 0 : word + 1;
+            bits = _pending[word];
+        }
+        return -1;
+    }
+
+    /**
+     * Place a value found by one of the rules (or guessed by SearchSolver).
+     * A rule can be working from remains that have not yet caught up with
+     * the latest discoveries, so make sure the value is not already placed
+     * elsewhere in the row, column or square; once a guess has been made,
+     * this is often how a wrong guess first shows itself.
+     *
+     * @param row
+     * @param col
+     * @param val - the value for the cell at row & col
+     * @throws UnsolvableException - the value is already placed in a peer
+     */
+    void assign(int row, int col, int val) throws UnsolvableException {
+        int placed = _puzzle[row*9 + col];
+        if (placed == val)
+            return;
+        int bit = Candidates.bit(val);
+        if (placed != 0 ||
+            (_rowSets[row] & _colSets[col] & _sqrSets[sqr(row, col)] & bit) == 0) {
+            throw new UnsolvableException("Step " + m_steps + ":  " +
+                    "[row col] = [" + (row+1) + " " + (col+1) + "] " +
+                    "- " + val + " is already placed - UNSOLVABLE");
+        }
+        if (_stats != null && _rule >= 0)
+            _stats._placements[_rule]++;
+        processDiscovery(row, col, val);
+    }
+
+    /**
+     * Remove the values in mask from the remains of a cell.
+     *
+     * @param row
+     * @param col
+     * @param mask - the values to remove
+     * @return true if the remains changed
+     */
+    private boolean removeAll(int row, int col, int mask) {
+        int cell = row*9 + col;
+        int remains = _remains[cell];
+        if ((remains & mask) == 0)
+            return false;
+        if (_marks != 0)
+            _trail[_trailTop++] = cell << 10 | remains;
+        _remains[cell] = (short) (remains & ~mask);
+        _dirtyVals |= remains & mask;
+        _changes += Candidates.count(remains & mask);
+        if (_stats != null && _rule >= 0)
+            _stats._eliminations[_rule] += Candidates.count(remains & mask);
+        changed(cell);
+        return true;
     }
 
     /**
@@ -308,7 +657,7 @@ public class JasperSolver {
      * @return
      * @throws Exception - the puzzle turns out to be unsolvable.
      */
-    private boolean checkThrees(int row, int col)
+    boolean checkThrees(int row, int col)
         throws UnsolvableException
     {
         int rowStart = row/3;
@@ -317,12 +666,11 @@ public class JasperSolver {
         boolean changing = false;
 
         // see if only 3 left in this row
-        SSet only3 = new SSet(EMPTY);
-        only3.addAll(_remains[row][colStart * 3]);
-        only3.addAll(_remains[row][colStart * 3 + 1]);
-        only3.addAll(_remains[row][colStart * 3 + 2]);
+        int only3 = _remains[row*9 + colStart * 3]
+                  | _remains[row*9 + colStart * 3 + 1]
+                  | _remains[row*9 + colStart * 3 + 2];
 
-        if (only3.size() == 3) {
+        if (Candidates.count(only3) == 3) {
             // remove the only3 set from the remains
             // of all cells in other rows of this square and
             // of all cells in this same row in other squares
@@ -331,7 +679,7 @@ public class JasperSolver {
                     if (((jj == row) && (kk/3 != colStart)) ||
                         ((jj != row) && (kk/3 == colStart))) {
                         m_steps++;
-                        boolean changed = _remains[jj][kk].removeAll(only3);
+                        boolean changed = removeAll(jj, kk, only3);
                         if (changed) {
                             changing = true;
                             checkIsNowOne(jj, kk, "Only Three in a Row - ");
@@ -343,12 +691,11 @@ public class JasperSolver {
 
 
         // see if only 3 left in this col
-        only3 = new SSet(EMPTY);
-        only3.addAll(_remains[rowStart * 3][col]);
-        only3.addAll(_remains[rowStart * 3 + 1][col]);
-        only3.addAll(_remains[rowStart * 3 + 2][col]);
+        only3 = _remains[(rowStart * 3) * 9 + col]
+              | _remains[(rowStart * 3 + 1) * 9 + col]
+              | _remains[(rowStart * 3 + 2) * 9 + col];
 
-        if (only3.size() == 3) {
+        if (Candidates.count(only3) == 3) {
             // remove the only3 set from the remains
             // of all cells in other cols of this square and
             // of all cells in this same col in other squares
@@ -357,7 +704,7 @@ public class JasperSolver {
                     if (((jj/3 == rowStart) && (kk != col)) ||
                         ((jj/3 != rowStart) && (kk == col))) {
                         m_steps++;
-                        boolean changed = _remains[jj][kk].removeAll(only3);;
+                        boolean changed = removeAll(jj, kk, only3);
                         if (changed) {
                             changing = true;
                             checkIsNowOne(jj, kk, "Only Three in a Col - ");
@@ -383,67 +730,61 @@ public class JasperSolver {
     private void checkIsNowOne(int row, int col, String rule)
         throws UnsolvableException
     {
+        int remains = _remains[row*9 + col];
+
         if (_debugEnabled) {
             println("  Step " + m_steps + ":  Rule " + rule +
                     " discovered remains[" + (row+1) +
-                    "][" + (col+1) + "] = " + _remains[row][col]);
+                    "][" + (col+1) + "] = " + Candidates.toString(remains));
             printRemains();
         }
 
-        if (_remains[row][col].size() == 0) {
-            printPuzzle();
-            printRemains();
+        if (remains == Candidates.NONE) {
+            if (_debugEnabled) {
+                printPuzzle();
+                printRemains();
+            }
             throw new UnsolvableException("Step " + m_steps + ":  " +
                     "[row col] = [" + (row+1) + " " + (col+1) + "] " +
                     "- UNSOLVABLE");
-        } else if (_remains[row][col].size() == 1) {
-            int last = _remains[row][col].first();
-            processDiscovery(row, col, last);
+        } else if (Candidates.count(remains) == 1) {
+            int last = Candidates.first(remains);
+            assign(row, col, last);
         }
     }
 
-    private boolean checkRowsColsSqrs(int row, int col) throws UnsolvableException {
-
-        boolean hit = false;
+    boolean checkRowsColsSqrs(int row, int col) throws UnsolvableException {
 
-        for (int val=1; val < 10 ; val++) {
-
-            if (!_remains[row][col].contains(val)) continue;
-
-            m_steps++;
+        m_steps++;
 
-            boolean rowHit = !_rowSets[row].contains(val);
-            boolean colHit = !_colSets[col].contains(val);
-            boolean sqrHit = !_sqrSets[row/3][col/3].contains(val);
+        // values already placed in the row, column or square are the
+        // ones missing from the row, column and square sets
+        int placed = ~(_rowSets[row] & _colSets[col] & _sqrSets[sqr(row, col)]);
 
-            hit = rowHit || colHit || sqrHit;
-            if (hit) {
-                _remains[row][col].remove(val);
-                checkIsNowOne(row, col, "Basic Elimination");
-            }
-            if (_puzzle[row][col] != 0) break;
-        }
+        boolean hit = removeAll(row, col, placed & Candidates.ALL);
+        if (hit)
+            checkIsNowOne(row, col, "Basic Elimination");
         return hit;
     }
 
     // remove the remains of all the other cells in this 3x3 sq
-    private boolean checkCanOnlyBeOneSqr(int row, int col) throws UnsolvableException {
+    boolean checkCanOnlyBeOneSqr(int row, int col) throws UnsolvableException {
         m_steps++;
-        SSet onlyOne = new SSet(_remains[row][col]);
+        int onlyOne = _remains[row*9 + col];
         int rowStart = row / 3;
         int colStart = col / 3;
         for (int jj = rowStart * 3; jj < rowStart * 3 + 3; jj++) {
             for (int kk = colStart * 3; kk < colStart * 3 + 3; kk++) {
                 if ((jj == row) && (kk == col)) continue;
-                onlyOne.removeAll(_remains[jj][kk]);
+                onlyOne &= ~_remains[jj*9 + kk];
             }
         }
 
-        if (onlyOne.size() == 1) {
-            int val = onlyOne.first();
+        if (Candidates.count(onlyOne) == 1) {
+            int val = Candidates.first(onlyOne);
 			if (_debugEnabled)
 			    println("Sqr-Remains-Rule");
-            processDiscovery(row, col, val);
+            assign(row, col, val);
 
             return true;
         }
@@ -460,21 +801,21 @@ public class JasperSolver {
      * @param col
      * @return true if yields one result
      */
-    private boolean checkCanOnlyBeOneCheckCol(int row, int col) {
+    boolean checkCanOnlyBeOneCheckCol(int row, int col) throws UnsolvableException {
         m_steps++;
-        SSet onlyOne = new SSet(_remains[row][col]);
+        int onlyOne = _remains[row*9 + col];
         for (int jj = 0; jj < 9; jj++) {
             if (jj == row)
                 continue;
-            onlyOne.removeAll(_remains[jj][col]);
+            onlyOne &= ~_remains[jj*9 + col];
         }
-        if (onlyOne.size() == 1) {
-            int val = onlyOne.first();
+        if (Candidates.count(onlyOne) == 1) {
+            int val = Candidates.first(onlyOne);
             if (_debugEnabled)
                 println("Col-Remains-Rule");
 //			printPuzzle();
 //			printRemains();
-            processDiscovery(row, col, val);
+            assign(row, col, val);
             return true;
         }
         return false;
@@ -489,28 +830,425 @@ public class JasperSolver {
      * @param col
      * @return true if yields one result
      */
-    private boolean checkCanOnlyBeOneCheckRow(int row, int col)
+    boolean checkCanOnlyBeOneCheckRow(int row, int col)
+        throws UnsolvableException
     {
         m_steps++;
-        SSet onlyOne = new SSet(_remains[row][col]);
+        int onlyOne = _remains[row*9 + col];
         for (int jj = 0; jj < 9; jj++) {
             if (jj == col)
                 continue;
-            onlyOne.removeAll(_remains[row][jj]);
+            onlyOne &= ~_remains[row*9 + jj];
         }
-        if (onlyOne.size() == 1) {
-            int val = onlyOne.first();
+        if (Candidates.count(onlyOne) == 1) {
+            int val = Candidates.first(onlyOne);
 			if (_debugEnabled)
 				println("Row-Remains-Rule");
 //          printPuzzle();
 //          printRemains();
-            processDiscovery(row, col, val);
+            assign(row, col, val);
             return true;
         }
         return false;
     }
 
 
+    /**
+     * @return the values not yet placed in a unit
+     */
+    private int unplaced(int unit) {
+        if (unit < 9)
+            return _rowSets[unit];
+        if (unit < 18)
+            return _colSets[unit - 9];
+        return _sqrSets[unit - 18];
+    }
+
+    /**
+     * Look for n open cells of a unit (n = 2, 3 or 4, and no more than half
+     * of those open) whose remains hold just n values between them: those
+     * cells take all n values, so remove them from the unit's other cells.
+     * A bigger naked subset means the other open cells are a hidden subset,
+     * which checkHiddenSubsets finds and makes the same removals for.
+     *
+     * @param unit - rows 0-8, columns 9-17, squares 18-26
+     * @return true if any remains changed
+     * @throws UnsolvableException - n cells have fewer than n values
+     */
+    boolean checkNakedSubsets(int unit) throws UnsolvableException {
+        // as many cells are open as values unplaced, and the smallest
+        // subset is 2 of them, so needs 4
+        if (Candidates.count(unplaced(unit)) < 4)
+            return false;
+
+        int[] cells = UNITS[unit];
+        int open = 0;
+        for (int nn = 0; nn < 9; nn++)
+            if (_puzzle[cells[nn]] == 0)
+                open |= 1 << nn;
+        int[] opens = BITS[open];
+        m_steps++;
+
+        boolean changing = false;
+        for (int size = 2; size <= MAX_SUBSET && 2 * size <= opens.length; size++) {
+            // only cells with no more than size values can be in one
+            int small = 0;
+            for (int nn = 0; nn < opens.length; nn++)
+                if (Candidates.count(_remains[cells[opens[nn]]]) <= size)
+                    small |= 1 << opens[nn];
+
+            int[] subsets = SUBSETS[size][small];
+            for (int ss = 0; ss < subsets.length; ss++) {
+                int subset = subsets[ss];
+                int[] members = BITS[subset];
+                int union = 0;
+                for (int nn = 0; nn < size; nn++)
+                    union |= _remains[cells[members[nn]]];
+                int values = Candidates.count(union);
+                if (values > size)
+                    continue;
+                if (values < size)
+                    throw new UnsolvableException("Step " + m_steps + ":  unit " + unit
+                            + " - " + size + " cells with only "
+                            + Candidates.toString(union) + " - UNSOLVABLE");
+
+                int[] others = BITS[open & ~subset];
+                for (int nn = 0; nn < others.length; nn++) {
+                    int cell = cells[others[nn]];
+                    if (_puzzle[cell] == 0 && removeAll(cell / 9, cell % 9, union)) {
+                        checkIsNowOne(cell / 9, cell % 9, "Naked Subset");
+                        changing = true;
+                    }
+                }
+            }
+        }
+        return changing;
+    }
+
+    /**
+     * Look for n values not yet placed in a unit (n = 2, 3 or 4, and no
+     * more than half of those unplaced) that can only go in n of its cells
+     * between them: those cells hold those values, so remove all others
+     * from them.  This is checkNakedSubsets with the roles of cells and
+     * values swapped.
+     *
+     * @param unit - rows 0-8, columns 9-17, squares 18-26
+     * @return true if any remains changed
+     * @throws UnsolvableException - n values have fewer than n cells
+     */
+    boolean checkHiddenSubsets(int unit) throws UnsolvableException {
+        int unplaced = unplaced(unit);
+        int unplacedCount = Candidates.count(unplaced);
+        // the smallest subset is 2 of them, so needs 4
+        if (unplacedCount < 4)
+            return false;
+
+        findPlaces(unit);
+        int[] cells = UNITS[unit];
+        short[] places = _places;
+        int at = unit*9;
+        int[] vals = BITS[unplaced];
+        for (int nn = 0; nn < vals.length; nn++)
+            if (places[at + vals[nn]] == 0)
+                throw new UnsolvableException("Step " + m_steps + ":  unit " + unit
+                        + " - nowhere for " + (vals[nn] + 1) + " - UNSOLVABLE");
+        m_steps++;
+
+        boolean changing = false;
+        for (int size = 2; size <= MAX_SUBSET && 2 * size <= unplacedCount; size++) {
+            // only values with no more than size cells can be in one
+            int small = 0;
+            for (int nn = 0; nn < vals.length; nn++)
+                if (Candidates.count(places[at + vals[nn]]) <= size)
+                    small |= 1 << vals[nn];
+
+            int[] subsets = SUBSETS[size][small];
+            for (int ss = 0; ss < subsets.length; ss++) {
+                int subset = subsets[ss];
+                int[] members = BITS[subset];
+                int union = 0;
+                for (int nn = 0; nn < size; nn++)
+                    union |= places[at + members[nn]];
+                int count = Candidates.count(union);
+                if (count > size)
+                    continue;
+                if (count < size)
+                    throw new UnsolvableException("Step " + m_steps + ":  unit " + unit
+                            + " - " + Candidates.toString(subset) + " in only "
+                            + count + " cells - UNSOLVABLE");
+
+                int[] inside = BITS[union];
+                for (int nn = 0; nn < inside.length; nn++) {
+                    int cell = cells[inside[nn]];
+                    if (_puzzle[cell] == 0 && removeAll(cell / 9, cell % 9, ~subset & Candidates.ALL)) {
+                        checkIsNowOne(cell / 9, cell % 9, "Hidden Subset");
+                        changing = true;
+                    }
+                }
+            }
+        }
+        return changing;
+    }
+
+    /**
+     * Look for n rows (n = 2, 3 or 4, and no more than half of those val is
+     * not yet placed in) in which val can only go in n columns between
+     * them: val goes in those columns in those rows, so remove it from the
+     * other cells of the columns.  Then do the same with rows and columns
+     * swapped.  As with subsets, a bigger fish one way round is a smaller
+     * one the other way, so that finds them all.
+     *
+     * @param val
+     * @return true if any remains changed
+     * @throws UnsolvableException - n rows (or columns) have fewer than n
+     * places for val between them
+     */
+    boolean checkFish(int val) throws UnsolvableException {
+        findLinePlaces();
+        return checkFishOf(val);
+    }
+
+    /**
+     * checkFish, given findLinePlaces() has been run.
+     */
+    private boolean checkFishOf(int val) throws UnsolvableException {
+        boolean changing = checkFish(val, false);
+        return checkFish(val, true) | changing;
+    }
+
+    /**
+     * @param val
+     * @param byCol - look for n columns, rather than n rows
+     */
+    private boolean checkFish(int val, boolean byCol) throws UnsolvableException {
+        int bit = Candidates.bit(val);
+        short[] baseSets = byCol ? _colSets : _rowSets;
+        int bases = 0;
+        for (int base = 0; base < 9; base++)
+            if ((baseSets[base] & bit) != 0)
+                bases |= 1 << base;
+        int baseCount = Candidates.count(bases);
+        // the smallest fish takes 2 of them, so needs 4
+        if (baseCount < 4)
+            return false;
+
+        // a row's cells are in column order, and a column's in row order
+        short[] places = _places;
+        int at = (byCol ? 9*9 : 0) + val - 1;
+        int[] lines = BITS[bases];
+        for (int nn = 0; nn < lines.length; nn++)
+            if (places[at + lines[nn]*9] == 0)
+                throw new UnsolvableException("Step " + m_steps + ":  "
+                        + (byCol ? "col " : "row ") + (lines[nn] + 1)
+                        + " - nowhere for " + val + " - UNSOLVABLE");
+        m_steps++;
+
+        boolean changing = false;
+        for (int size = 2; size <= MAX_SUBSET && 2 * size <= baseCount; size++) {
+            // only lines with no more than size places can be in one
+            int small = 0;
+            for (int nn = 0; nn < lines.length; nn++)
+                if (Candidates.count(places[at + lines[nn]*9]) <= size)
+                    small |= 1 << lines[nn];
+
+            int[] subsets = SUBSETS[size][small];
+            for (int ss = 0; ss < subsets.length; ss++) {
+                int subset = subsets[ss];
+                int[] members = BITS[subset];
+                int union = 0;
+                for (int nn = 0; nn < size; nn++)
+                    union |= places[at + members[nn]*9];
+                int count = Candidates.count(union);
+                if (count > size)
+                    continue;
+                if (count < size)
+                    throw new UnsolvableException("Step " + m_steps + ":  "
+                            + size + (byCol ? " cols" : " rows")
+                            + " with only " + count + " places for " + val
+                            + " - UNSOLVABLE");
+
+                int[] others = BITS[bases & ~subset];
+                int[] covers = BITS[union];
+                for (int nn = 0; nn < others.length; nn++) {
+                    for (int kk = 0; kk < covers.length; kk++) {
+                        int cell = byCol ? covers[kk]*9 + others[nn]
+                                         : others[nn]*9 + covers[kk];
+                        if (_puzzle[cell] == 0 && removeAll(cell / 9, cell % 9, bit)) {
+                            checkIsNowOne(cell / 9, cell % 9, "Fish");
+                            changing = true;
+                        }
+                    }
+                }
+            }
+        }
+        return changing;
+    }
+
+    /**
+     * Probe the open cells, fewest remains first, and then each place each
+     * unplaced value can go in a row, column or square, until one of them
+     * changes something.  Each assumption of a value for a cell is run
+     * through propagate() once per call, and what it led to kept, so the
+     * probes for a cell's values serve again when a value's places are
+     * looked at; the rule stops at the first change, so those results are
+     * never behind by more than it made.
+     *
+     * @param maxTier - the rules to probe with; below this rule's own tier
+     * @return true if any remains changed
+     * @throws UnsolvableException - every value of a cell fails
+     */
+    boolean checkForcing(int maxTier) throws UnsolvableException {
+        // the stall rules still run on a solved grid; there is nothing to try
+        int open = 0;
+        while (open < 9*9 && _puzzle[open] != 0)
+            open++;
+        if (open == 9*9)
+            return false;
+
+        for (int nn = 0; nn < _probed.length; nn++)
+            _probed[nn] = 0;
+        m_steps++;
+
+        for (int size = 2; size <= 9; size++)
+            for (int cell = 0; cell < 9*9; cell++)
+                if (_puzzle[cell] == 0 && Candidates.count(_remains[cell]) == size
+                        && forceCell(cell, maxTier))
+                    return true;
+
+        for (int unit = 0; unit < 27; unit++) {
+            int[] vals = BITS[unplaced(unit)];
+            for (int nn = 0; nn < vals.length; nn++) {
+                // the probes run the rules that use _places, so look again
+                findPlaces(unit);
+                int where = _places[unit*9 + vals[nn]];
+                if (Candidates.count(where) >= 2 && forceUnit(unit, vals[nn] + 1, where, maxTier))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Probe each value of an open cell: one it cannot hold is removed, and
+     * a value that every other one rules out of another cell goes too.
+     *
+     * @return true if any remains changed
+     */
+    private boolean forceCell(int cell, int maxTier) throws UnsolvableException {
+        int[] vals = BITS[_remains[cell]];
+        clearUnion();
+        for (int nn = 0; nn < vals.length; nn++) {
+            int val = vals[nn] + 1;
+            if (probe(cell, val, maxTier))
+                return refute(cell, val);
+            addToUnion(cell, val);
+        }
+        return applyUnion("Cell Forcing Chain");
+    }
+
+    /**
+     * Probe each place a value can go in a unit, as forceCell() does each
+     * value of a cell.
+     *
+     * @param where - the unit's cells val can go in, by their place in UNITS
+     * @return true if any remains changed
+     */
+    private boolean forceUnit(int unit, int val, int where, int maxTier)
+            throws UnsolvableException {
+        int[] at = BITS[where];
+        clearUnion();
+        for (int nn = 0; nn < at.length; nn++) {
+            int cell = UNITS[unit][at[nn]];
+            if (probe(cell, val, maxTier))
+                return refute(cell, val);
+            addToUnion(cell, val);
+        }
+        return applyUnion("Unit Forcing Chain");
+    }
+
+    /**
+     * Assume val for cell and propagate with the rules up to maxTier, then
+     * put everything back as it was.  The stats, the count of changes the
+     * scheduler measures rules by and the scheduler's own measurements are
+     * left as they were, so only what this rule removes in the end is put
+     * down to it, and the rules the probe ran are not credited at all.
+     *
+     * @return true if the assumption led to a contradiction
+     */
+    private boolean probe(int cell, int val, int maxTier) {
+        int index = cell*9 + val - 1;
+        if (_probed[index] != 0)
+            return _probed[index] == FAILED;
+
+        RuleStats stats = _stats;
+        int rule = _rule;
+        long changes = _changes;
+        boolean measuring = _scheduler.isMeasuring();
+        _stats = null;
+        _scheduler.setMeasuring(false);
+        boolean failed = false;
+        int mark = mark();
+        try {
+            assign(cell / 9, cell % 9, val);
+            propagate(maxTier);
+            if (_probeRemains == null)
+                _probeRemains = new short[9*9*9 * 9*9];
+            System.arraycopy(_remains, 0, _probeRemains, index * 9*9, 9*9);
+        } catch (UnsolvableException e) {
+            failed = true;
+        } finally {
+            undo(mark);
+            release(mark);
+            _stats = stats;
+            _rule = rule;
+            _changes = changes;
+            _scheduler.setMeasuring(measuring);
+        }
+        _probed[index] = failed ? FAILED : PROBED;
+        return failed;
+    }
+
+    /**
+     * val for cell led to a contradiction, so remove it.
+     */
+    private boolean refute(int cell, int val) throws UnsolvableException {
+        removeAll(cell / 9, cell % 9, Candidates.bit(val));
+        checkIsNowOne(cell / 9, cell % 9, "Nishio");
+        return true;
+    }
+
+    private void clearUnion() {
+        short[] union = _union;
+        for (int cell = 0; cell < 9*9; cell++)
+            union[cell] = 0;
+    }
+
+    private void addToUnion(int cell, int val) {
+        short[] union = _union;
+        short[] led = _probeRemains;
+        int at = (cell*9 + val - 1) * 9*9;
+        for (int other = 0; other < 9*9; other++)
+            union[other] |= led[at + other];
+    }
+
+    /**
+     * Every branch probed held, so each cell can only have what one of
+     * them left it: remove the rest.
+     *
+     * @return true if any remains changed
+     */
+    private boolean applyUnion(String rule) throws UnsolvableException {
+        short[] union = _union;
+        boolean changing = false;
+        for (int cell = 0; cell < 9*9; cell++) {
+            if (_puzzle[cell] == 0 && removeAll(cell / 9, cell % 9, ~union[cell] & Candidates.ALL)) {
+                checkIsNowOne(cell / 9, cell % 9, rule);
+                changing = true;
+            }
+        }
+        return changing;
+    }
+
     /**
      * Given the corners of a 3x3 square, run some inter-square logic:
      * check each [1 x 3] row for values that are only in that row
@@ -526,7 +1264,7 @@ public class JasperSolver {
      * @return true if any changes happened
      * @throws UnsolvableException
      */
-    private boolean cleanOtherSquares(int row, int col) throws UnsolvableException {
+    boolean cleanOtherSquares(int row, int col) throws UnsolvableException {
 
         // row & col are corners of a square.
         // check each [1 x 3] row for values that are only in that row
@@ -538,33 +1276,28 @@ public class JasperSolver {
         int colStart = col / 3;
         int col1 = (colStart + 1) % 3; col1 *= 3;
         int col2 = (colStart + 2) % 3; col2 *= 3;
-        SSet[] rowContains = new SSet[3];
-        SSet[] colContains = new SSet[3];
-        for (int jj = 0; jj < 3; jj++) {
-            rowContains[jj] = new SSet(EMPTY);
-            colContains[jj] = new SSet(EMPTY);
-        }
+
         // build up row & column Contains
+        int rowContains0 = 0, rowContains1 = 0, rowContains2 = 0;
+        int colContains0 = 0, colContains1 = 0, colContains2 = 0;
         for (int jj = 0; jj < 3; jj++) {
-            for (int kk = 0; kk < 3; kk++) {
-                rowContains[jj].addAll(_remains[row + jj][col + kk]);
-                colContains[kk].addAll(_remains[row + jj][col + kk]);
-            }
+            rowContains0 |= _remains[row*9 + col + jj];
+            rowContains1 |= _remains[(row + 1)*9 + col + jj];
+            rowContains2 |= _remains[(row + 2)*9 + col + jj];
+            colContains0 |= _remains[(row + jj)*9 + col];
+            colContains1 |= _remains[(row + jj)*9 + col + 1];
+            colContains2 |= _remains[(row + jj)*9 + col + 2];
         }
 
         // subtract other row & column remains
-        SSet[] rowRemains = new SSet[3];
-        SSet[] colRemains = new SSet[3];
-        for (int jj = 0; jj < 3; jj++) {
-            rowRemains[jj] = new SSet(rowContains[jj]);
-            colRemains[jj] = new SSet(colContains[jj]);
-        }
-        for (int nn = 0; nn < 3; nn++) {
-            rowRemains[nn].removeAll(rowContains[(nn + 1) % 3]);
-            rowRemains[nn].removeAll(rowContains[(nn + 2) % 3]);
-            colRemains[nn].removeAll(colContains[(nn + 1) % 3]);
-            colRemains[nn].removeAll(colContains[(nn + 2) % 3]);
-        }
+        int rowRemains[] = _rowRemains;
+        int colRemains[] = _colRemains;
+        rowRemains[0] = rowContains0 & ~(rowContains1 | rowContains2);
+        rowRemains[1] = rowContains1 & ~(rowContains0 | rowContains2);
+        rowRemains[2] = rowContains2 & ~(rowContains0 | rowContains1);
+        colRemains[0] = colContains0 & ~(colContains1 | colContains2);
+        colRemains[1] = colContains1 & ~(colContains0 | colContains2);
+        colRemains[2] = colContains2 & ~(colContains0 | colContains1);
 
         // remove leftover values from row & col remains from
         // other square's same rows & cols
@@ -581,25 +1314,26 @@ public class JasperSolver {
                             + (col + jj) + "].removeAll(colRemains[" + jj
                             + "])");
                 }
-                changed = _puzzle[row + jj][col1 + kk] == 0
-                        &&                    _remains[row + jj][col1 + kk].removeAll(rowRemains[jj]);
+                changed = _puzzle[(row + jj)*9 + col1 + kk] == 0
+                        && removeAll(row + jj, col1 + kk, rowRemains[jj]);
                 if (changed) {
                     checkIsNowOne(row + jj, col1 + kk, "rowRemains");
                     changing = true;
                 }
-                changed = _puzzle[row + jj][col2 + kk] == 0 &&
-                    _remains[row + jj][col2 + kk].removeAll(rowRemains[jj]);
+                changed = _puzzle[(row + jj)*9 + col2 + kk] == 0
+                        && removeAll(row + jj, col2 + kk, rowRemains[jj]);
                 if (changed) {
                     checkIsNowOne(row + jj, col2 + kk, "rowRemains");
                     changing = true;
                 }
-                changed = _puzzle[row1 + kk][col + jj] == 0 &&
-                    _remains[row1 + kk][col + jj].removeAll(colRemains[jj]);
+                changed = _puzzle[(row1 + kk)*9 + col + jj] == 0
+                        && removeAll(row1 + kk, col + jj, colRemains[jj]);
                 if (changed) {
                     checkIsNowOne(row1 + kk, col + jj, "colRemains");
                     changing = true;
                 }
-                changed = _puzzle[row2 + kk][col + jj] == 0 && _remains[row2 + kk][col + jj].removeAll(colRemains[jj]);
+                changed = _puzzle[(row2 + kk)*9 + col + jj] == 0
+                        && removeAll(row2 + kk, col + jj, colRemains[jj]);
                 if (changed) {
                     checkIsNowOne(row2 + kk, col + jj, "colRemains");
                     changing = true;
@@ -611,23 +1345,21 @@ public class JasperSolver {
         // if rowRemains or colRemains is just 3 numbers, then the row or col must
         // contain just those three numbers, and the other rows or columns can
         // have those values subtracted from their remains.
-        SSet subtract;
         for (int jj = 0; jj < 3; jj++) {
-            if (rowRemains[jj].size() == 3) {
+            if (Candidates.count(rowRemains[jj]) == 3) {
                 for (int kk = 0; kk < 3; kk++) {
-                    if (_puzzle[row + jj][col + kk] != 0) continue;
-                    subtract = new SSet(_remains[row + jj][col + kk]);
-                    subtract.removeAll(rowRemains[jj]);
+                    if (_puzzle[(row + jj)*9 + col + kk] != 0) continue;
 
                     if ( _debugEnabled ) {
                         println("because rowRemains[" + jj + "] = "
-                                + rowRemains[jj] + ", about to subtract "
-                                + subtract + " from " + "remains[" + (row + jj)
-                                + "][" + (col + kk) + "] ( = "
-                                + _remains[row + jj][col + kk] + " )");
+                                + Candidates.toString(rowRemains[jj])
+                                + ", about to subtract everything else from "
+                                + "remains[" + (row + jj) + "][" + (col + kk)
+                                + "] ( = " + Candidates.toString(
+                                        _remains[(row + jj)*9 + col + kk]) + " )");
                     }
 
-                    changed = _remains[row + jj][col + kk].removeAll(subtract);
+                    changed = removeAll(row + jj, col + kk, ~rowRemains[jj] & Candidates.ALL);
                     if (changed) {
                         checkIsNowOne(row + jj, col + kk, "rowRemainsThree");
                         changing = true;
@@ -635,24 +1367,22 @@ public class JasperSolver {
                 }
             }
 
-            if (colRemains[jj].size() == 3) {
+            if (Candidates.count(colRemains[jj]) == 3) {
                 for (int kk = 0; kk < 3; kk++) {
-                    if (_puzzle[row + jj][col + kk] != 0) continue;
-                    subtract = new SSet(_remains[row + kk][col + jj]);
-                    subtract.removeAll(colRemains[jj]);
+                    if (_puzzle[(row + kk)*9 + col + jj] != 0) continue;
 
                     if ( _debugEnabled ) {
-                        println("because colRemains["+jj+"] = "
-                                + colRemains[jj] + ", about to subtract "
-                                + subtract + " from "
-                                + "remains["+(row + kk)+"]["+(col + jj)+"] ( = "
-                                + _remains[row + kk][col + jj] + " )");
-                        println("colRemains["+jj+"].cnt() = " + colRemains[jj].size());
+                        println("because colRemains[" + jj + "] = "
+                                + Candidates.toString(colRemains[jj])
+                                + ", about to subtract everything else from "
+                                + "remains[" + (row + kk) + "][" + (col + jj)
+                                + "] ( = " + Candidates.toString(
+                                        _remains[(row + kk)*9 + col + jj]) + " )");
                     }
 
-                    changed = _remains[row + kk][col + jj].removeAll(subtract);
+                    changed = removeAll(row + kk, col + jj, ~colRemains[jj] & Candidates.ALL);
                     if (changed) {
-                        checkIsNowOne(row + jj, col + kk, "colRemainsThree");
+                        checkIsNowOne(row + kk, col + jj, "colRemainsThree");
                         changing = true;
                     }
                 }
@@ -665,35 +1395,14 @@ public class JasperSolver {
 
 
     /**
-     * Iteratively pass through the cells of the puzzle, applying the six
-     * rules to each cell, until no further changes occur.  Throw an exception
-     * if a rules discovers the puzzle is unsolvable.
+     * Iteratively apply the six rules to the cells of the puzzle, until no
+     * further changes occur.  Throw an exception if a rules discovers the
+     * puzzle is unsolvable.
      *
      * @throws UnsolvableException
      */
     public void solve() throws UnsolvableException {
-        boolean m_changing;
-        do {
-            m_changing = false;
-            for (int row = 0; row < 9; row++) {
-                for (int col = 0; col < 9; col++) {
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkRowsColsSqrs(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneSqr(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneCheckCol(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneCheckRow(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkThrees(row, col);
-                    if ((row % 3) == 0 && (col % 3) == 0) {
-                        m_changing |= cleanOtherSquares(row, col);
-                    }
-                    //verify();
-                }
-            }
-        } while (m_changing);
+        propagate();
 
         println("\nFINAL step " + m_steps + ":");
 //      printRemains();
@@ -701,31 +1410,7 @@ public class JasperSolver {
     }
 
     public int[] solveAndReturnPuzzle() throws UnsolvableException  {
-        boolean m_changing;
-        do {
-            m_changing = false;
-            for (int row = 0; row < 9; row++) {
-                for (int col = 0; col < 9; col++) {
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkRowsColsSqrs(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneSqr(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneCheckCol(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkCanOnlyBeOneCheckRow(row, col);
-                    if (_puzzle[row][col] == 0)
-                        m_changing |= checkThrees(row, col);
-                    if ((row % 3) == 0 && (col % 3) == 0) {
-                        m_changing |= cleanOtherSquares(row, col);
-                    }
-                    if ( _debugEnabled ) {
-                        printPuzzle();
-                        verify();
-                    }
-                }
-            }
-        } while (m_changing);
+        propagate();
 
         if ( _debugEnabled ) {
             println("\nFINAL step " + m_steps + ":");
@@ -737,12 +1422,209 @@ public class JasperSolver {
         return ssToIntArray();
     }
 
+    /**
+     * Apply the rules until the puzzle stops changing.  This is the whole
+     * of solveAndReturnPuzzle(), and is what SearchSolver runs before it
+     * starts guessing.  Cells come off the worklist, having the cell rules
+     * applied, until it is empty; then the other rules are tried in turn
+     * until one changes something, which may queue more cells.
+     *
+     * @throws UnsolvableException
+     */
+    void propagate() throws UnsolvableException {
+        propagate(Integer.MAX_VALUE);
+    }
+
+    /**
+     * propagate(), with only the rules up to a tier.  SearchSolver runs this
+     * at each node of its search, where the dearer rules cost more than the
+     * nodes they save.
+     *
+     * @param maxTier - the highest tier of rules to try
+     * @throws UnsolvableException
+     */
+    void propagate(int maxTier) throws UnsolvableException {
+        RuleScheduler scheduler = _scheduler;
+        while (true) {
+            int[] order = scheduler.getCellOrder();
+            int cell;
+            while ((cell = nextPending()) >= 0) {
+                for (int nn = 0; nn < order.length && _puzzle[cell] == 0; nn++)
+                    applyRule(order[nn], cell);
+                if ( _debugEnabled ) {
+                    printPuzzle();
+                    verify();
+                }
+            }
+
+            if (!applyStallRules(maxTier))
+                break;
+        }
+    }
+
+    /**
+     * Try the rules of tier 1 up to maxTier, lowest tier first, until one
+     * of them changes something.
+     *
+     * @return true if one did
+     */
+    private boolean applyStallRules(int maxTier) throws UnsolvableException {
+        int[] order = _scheduler.getStallOrder();
+        for (int nn = 0; nn < order.length; nn++)
+            if (_scheduler.getTier(order[nn]) > maxTier)
+                break;
+            else if (applyRule(order[nn], -1))
+                return true;
+        return false;
+    }
+
+    /**
+     * Apply one rule, counting it if there are stats.
+     *
+     * @param index - the rule, as the scheduler numbers them
+     * @param cell - see Rule.apply()
+     * @return true if the rule changed anything
+     * @throws UnsolvableException
+     */
+    private boolean applyRule(int index, int cell) throws UnsolvableException {
+        if (_stats == null)
+            return _scheduler.apply(index, this, cell);
+
+        RuleStats stats = _stats;
+        int rule = _scheduler.getId(index);
+        _rule = rule;
+        long start = System.nanoTime();
+        try {
+            return _scheduler.apply(index, this, cell);
+        } finally {
+            stats._nanos[rule] += System.nanoTime() - start;
+            stats._invocations[rule]++;
+            _rule = -1;
+        }
+    }
+
+    /**
+     * Run cleanOtherSquares on the squares marked since it last ran on them,
+     * until one of them changes something.
+     *
+     * @return true if one did
+     * @throws UnsolvableException
+     */
+    boolean cleanDirtySquares() throws UnsolvableException {
+        while (_dirtySqrs != 0) {
+            int sqr = Integer.numberOfTrailingZeros(_dirtySqrs);
+            _dirtySqrs &= ~(1 << sqr);
+            if (cleanOtherSquares((sqr / 3) * 3, (sqr % 3) * 3))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run checkNakedSubsets on the units changed since it last ran on them,
+     * until one of them changes something.
+     *
+     * @return true if one did
+     * @throws UnsolvableException
+     */
+    boolean checkDirtyNakedSubsets() throws UnsolvableException {
+        while ((_subsetUnits & NAKED_UNITS) != 0) {
+            int unit = Long.numberOfTrailingZeros(_subsetUnits);
+            _subsetUnits &= ~(1L << unit);
+            if (checkNakedSubsets(unit))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run checkHiddenSubsets on the units changed since it last ran on them,
+     * until one of them changes something.
+     *
+     * @return true if one did
+     * @throws UnsolvableException
+     */
+    boolean checkDirtyHiddenSubsets() throws UnsolvableException {
+        while ((_subsetUnits & HIDDEN_UNITS) != 0) {
+            int bit = Long.numberOfTrailingZeros(_subsetUnits & HIDDEN_UNITS);
+            _subsetUnits &= ~(1L << bit);
+            if (checkHiddenSubsets(bit - 32))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run checkFish on the values whose cells have changed since it last ran
+     * on them, until one of them changes something.
+     *
+     * @return true if one did
+     * @throws UnsolvableException
+     */
+    boolean checkDirtyFish() throws UnsolvableException {
+        if (_dirtyVals != 0)
+            findLinePlaces();
+        while (_dirtyVals != 0) {
+            int bit = Integer.numberOfTrailingZeros(_dirtyVals);
+            _dirtyVals &= ~(1 << bit);
+            if (checkFishOf(bit + 1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fill in _places for one unit from the remains of its open cells.
+     */
+    private void findPlaces(int unit) {
+        short[] places = _places;
+        int at = unit*9;
+        for (int val = 0; val < 9; val++)
+            places[at + val] = 0;
+        int[] cells = UNITS[unit];
+        for (int nn = 0; nn < 9; nn++) {
+            int cell = cells[nn];
+            if (_puzzle[cell] != 0)
+                continue;
+            int[] values = BITS[_remains[cell]];
+            for (int kk = 0; kk < values.length; kk++)
+                places[at + values[kk]] |= 1 << nn;
+        }
+    }
+
+    /**
+     * Fill in _places for every row and column, for checkFish.  It stops at
+     * the first value it changes anything for, so until the next call the
+     * places are only ever behind by removals, which can hide a fish for
+     * now but never make one up.
+     */
+    private void findLinePlaces() {
+        for (int unit = 0; unit < 18; unit++)
+            findPlaces(unit);
+    }
+
+    /**
+     * Set where all solvers send their debugging output.
+     *
+     * @param log
+     */
+    public static void setLog(SolverLog log) {
+        _log = log;
+    }
+
     private void println(String string) {
-        Log.d("J-SUD", string);
+        _log.println(string);
+    }
+
+    /**
+     * @return the number of rule steps taken so far
+     */
+    public int getSteps() {
+        return m_steps;
     }
 
     public boolean tileCouldBe(int i, int j, int k) {
-        return _remains[i][j].contains(k);
+        return Candidates.contains(_remains[i*9 + j], k);
     }
 
 
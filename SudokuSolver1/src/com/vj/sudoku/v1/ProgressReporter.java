@@ -0,0 +1,93 @@
+package com.vj.sudoku.v1;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Passes a solver's progress counter on to something that displays it, at
+ * a rate the display can keep up with.  The solver calls report() as often
+ * as it likes; only every stepInterval-th call looks at the clock, and only
+ * once intervalMillis have passed since the last update is a new one handed
+ * to the executor.  If the previous update has not been delivered yet,
+ * nothing more is queued: the pending one will pick up the latest value
+ * when it runs.  So the solver never waits on the display, and at most one
+ * update is ever queued.
+ * <br><br>
+ * On Android the executor posts to the UI thread's Handler; for a batch run
+ * it can be a background thread writing to stderr.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class ProgressReporter {
+
+    /** Shows a progress value; called by the executor. */
+    public interface Listener {
+        void onProgress(long value);
+    }
+
+    private final Executor _executor;
+    private final Listener _listener;
+    private final long _intervalNanos;
+    private final int _stepInterval;
+
+    private volatile long _latest = 0;
+    private final AtomicBoolean _pending = new AtomicBoolean(false);
+
+    // only touched by the reporting thread
+    private int _steps = 0;
+    private long _lastPublish;
+
+    private final Runnable _deliver = new Runnable() {
+        public void run() {
+            _pending.set(false);
+            _listener.onProgress(_latest);
+        }
+    };
+
+    /**
+     * @param executor delivers updates to the listener
+     * @param listener
+     * @param intervalMillis the least time between updates
+     * @param stepInterval how many reports to take between looks at the clock
+     */
+    public ProgressReporter(Executor executor, Listener listener,
+            long intervalMillis, int stepInterval) {
+        _executor = executor;
+        _listener = listener;
+        _intervalNanos = intervalMillis * 1000000L;
+        _stepInterval = Math.max(1, stepInterval);
+        _lastPublish = System.nanoTime();
+    }
+
+    /**
+     * Note the latest value of the counter.  Must always be called from the
+     * same thread.
+     *
+     * @param value
+     */
+    public void report(long value) {
+        _latest = value;
+        if (++_steps < _stepInterval)
+            return;
+        _steps = 0;
+        long now = System.nanoTime();
+        if (now - _lastPublish < _intervalNanos)
+            return;
+        _lastPublish = now;
+        publish();
+    }
+
+    /**
+     * Hand the latest value on now, whatever the time since the last
+     * update, unless an update is already on its way.
+     */
+    public void flush() {
+        publish();
+    }
+
+    private void publish() {
+        if (_pending.compareAndSet(false, true))
+            _executor.execute(_deliver);
+    }
+}
@@ -0,0 +1,105 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Reads and writes puzzles in the one-line form used throughout the app:
+ * 81 characters in row order, '1'-'9' for givens and '0' or '.' for blanks.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class PuzzleFormat {
+
+    public static final int CELLS = 9*9;
+
+    private PuzzleFormat() {
+    }
+
+    /**
+     * Parse the first 81 characters of line into puzzle.  Anything after
+     * the 81st character (a rating, a comment) is ignored.
+     *
+     * @param line the text to parse
+     * @param puzzle receives the values, 0 for blanks
+     * @return false if line does not start with a puzzle
+     */
+    public static boolean parse(CharSequence line, int[] puzzle) {
+        if (line.length() < CELLS)
+            return false;
+        for (int cell = 0; cell < CELLS; cell++) {
+            char ch = line.charAt(cell);
+            if (ch >= '1' && ch <= '9')
+                puzzle[cell] = ch - '0';
+            else if (ch == '0' || ch == '.')
+                puzzle[cell] = 0;
+            else
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the first 81 characters of line into a new puzzle.
+     *
+     * @param line the text to parse
+     * @return the puzzle, or null if line does not start with one
+     */
+    public static int[] parse(CharSequence line) {
+        int[] puzzle = new int[CELLS];
+        return parse(line, puzzle) ? puzzle : null;
+    }
+
+    /**
+     * Parse the first getCells() characters of line into puzzle, for a
+     * board of any size (see Geometry for the characters used).
+     *
+     * @param line the text to parse
+     * @param geometry the shape of the board
+     * @param puzzle receives the values, 0 for blanks
+     * @return false if line does not start with a puzzle
+     */
+    public static boolean parse(CharSequence line, Geometry geometry, int[] puzzle) {
+        int cells = geometry.getCells();
+        if (line.length() < cells)
+            return false;
+        for (int cell = 0; cell < cells; cell++) {
+            int val = geometry.valueOf(line.charAt(cell));
+            if (val < 0)
+                return false;
+            puzzle[cell] = val;
+        }
+        return true;
+    }
+
+    /**
+     * Append a puzzle of any size, a character per cell, '0' for blanks.
+     *
+     * @param puzzle the values to write
+     * @param out where to append them
+     */
+    public static void formatAny(int[] puzzle, StringBuilder out) {
+        for (int cell = 0; cell < puzzle.length; cell++)
+            out.append(Geometry.symbol(puzzle[cell]));
+    }
+
+    /**
+     * Append the puzzle as 81 characters, '0' for blanks.
+     *
+     * @param puzzle the values to write
+     * @param out where to append them
+     */
+    public static void format(int[] puzzle, StringBuilder out) {
+        for (int cell = 0; cell < CELLS; cell++)
+            out.append((char) ('0' + puzzle[cell]));
+    }
+
+    /**
+     * @param puzzle the values to write
+     * @return the puzzle as 81 characters, '0' for blanks (or a character
+     * per cell, for larger boards)
+     */
+    public static String toString(int[] puzzle) {
+        StringBuilder out = new StringBuilder(puzzle.length);
+        formatAny(puzzle, out);
+        return out.toString();
+    }
+}
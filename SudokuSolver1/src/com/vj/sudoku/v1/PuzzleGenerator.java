@@ -0,0 +1,177 @@
+package com.vj.sudoku.v1;
+
+import java.util.Random;
+
+/**
+ * Makes new puzzles in two steps: fillGrid() builds a random solved grid,
+ * and removeClues() blanks cells from it, in random order, for as long as
+ * the puzzle keeps exactly one solution (checked with
+ * SearchSolver.countSolutions) and has more clues than the target.
+ * <br><br>
+ * Cells can be blanked in symmetric pairs, as most published puzzles are.
+ * A generator holds a SearchSolver, so it is not thread safe; give each
+ * thread its own.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class PuzzleGenerator {
+
+    /** Which cells are blanked together. */
+    public enum Symmetry {
+        /** each cell on its own */
+        NONE,
+        /** a cell and its image under a half turn */
+        ROTATIONAL,
+        /** a cell and its image in the middle column */
+        MIRROR,
+        /** a cell and its image in the main diagonal */
+        DIAGONAL;
+
+        /**
+         * @param cell - row*9 + col
+         * @return the cell blanked along with it (cell itself if none)
+         */
+        public int partner(int cell) {
+            int row = cell / 9;
+            int col = cell % 9;
+            switch (this) {
+            case ROTATIONAL: return 9*9 - 1 - cell;
+            case MIRROR:     return row*9 + 8 - col;
+            case DIAGONAL:   return col*9 + row;
+            default:         return cell;
+            }
+        }
+    }
+
+    private final Random _random;
+    private final SearchSolver _search = new SearchSolver();
+
+    private final int[] _order = new int[9*9];
+    private final int[] _perm = new int[9];
+
+    public PuzzleGenerator(Random random) {
+        _random = random;
+    }
+
+    /**
+     * Share what the uniqueness checks learn.  Each clue blanked is checked
+     * with a search of a puzzle much like the last one, which tends to meet
+     * the same dead ends; a table lets later checks skip them, and may be
+     * shared by the generators of several threads.
+     *
+     * @param table - where to record and look up dead nodes, or null for none
+     */
+    public void setTable(TranspositionTable table) {
+        _search.setTable(table);
+    }
+
+    /**
+     * @param target - stop blanking cells at this many clues
+     * @param symmetry
+     * @return a new puzzle with one solution
+     */
+    public int[] generate(int target, Symmetry symmetry) {
+        return removeClues(fillGrid(), target, symmetry);
+    }
+
+    /**
+     * Fill the three squares on the diagonal with shuffled values (they
+     * share no row or column, so any filling is consistent), solve for the
+     * rest, then shuffle the rows within bands, the bands, the columns
+     * within stacks and the stacks.
+     *
+     * @return a random solved grid
+     */
+    public int[] fillGrid() {
+        int[] seed = new int[9*9];
+        for (int sqr = 0; sqr < 9; sqr += 4) {
+            shuffle(_perm, 9);
+            for (int nn = 0; nn < 9; nn++)
+                seed[((sqr/3)*3 + nn/3)*9 + (sqr%3)*3 + nn%3] = _perm[nn] + 1;
+        }
+        int[] solved = _search.solve(seed).getGrid();
+
+        int[] rows = shuffledLines();
+        int[] cols = shuffledLines();
+        int[] grid = new int[9*9];
+        for (int row = 0; row < 9; row++)
+            for (int col = 0; col < 9; col++)
+                grid[row*9 + col] = solved[rows[row]*9 + cols[col]];
+        return grid;
+    }
+
+    /**
+     * @return 0-8 shuffled so that each group of three stays together
+     */
+    private int[] shuffledLines() {
+        int[] lines = new int[9];
+        int[] bands = new int[3];
+        int[] within = new int[3];
+        shuffle(bands, 3);
+        for (int band = 0; band < 3; band++) {
+            shuffle(within, 3);
+            for (int nn = 0; nn < 3; nn++)
+                lines[band*3 + nn] = bands[band]*3 + within[nn];
+        }
+        return lines;
+    }
+
+    /**
+     * Set values[0..count) to a random ordering of 0..count-1.
+     */
+    private void shuffle(int[] values, int count) {
+        for (int nn = 0; nn < count; nn++) {
+            int kk = _random.nextInt(nn + 1);
+            values[nn] = values[kk];
+            values[kk] = nn;
+        }
+    }
+
+    /**
+     * Blank cells (with their symmetry partners) in random order, keeping
+     * each blank only if the puzzle still has one solution, until no more
+     * than target clues are left or every cell has been tried.
+     *
+     * @param grid - a solved grid, left unchanged
+     * @param target - the number of clues to aim for
+     * @param symmetry
+     * @return the puzzle; it has more than target clues if no further
+     * cell could be blanked
+     */
+    public int[] removeClues(int[] grid, int target, Symmetry symmetry) {
+        int[] puzzle = grid.clone();
+        int clues = 9*9;
+        shuffle(_order, 9*9);
+        for (int nn = 0; nn < 9*9 && clues > target; nn++) {
+            int cell = _order[nn];
+            if (puzzle[cell] == 0)
+                continue;
+            int partner = symmetry.partner(cell);
+            int blanked = partner == cell ? 1 : 2;
+            if (clues - blanked < target)
+                continue;
+
+            puzzle[cell] = 0;
+            puzzle[partner] = 0;
+            if (_search.countSolutions(puzzle, 2) == 1) {
+                clues -= blanked;
+            } else {
+                puzzle[cell] = grid[cell];
+                puzzle[partner] = grid[partner];
+            }
+        }
+        return puzzle;
+    }
+
+    /**
+     * @return the number of clues in puzzle
+     */
+    public static int clues(int[] puzzle) {
+        int clues = 0;
+        for (int value : puzzle)
+            if (value != 0)
+                clues++;
+        return clues;
+    }
+}
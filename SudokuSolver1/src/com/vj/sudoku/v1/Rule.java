@@ -0,0 +1,37 @@
+package com.vj.sudoku.v1;
+
+/**
+ * A technique for whittling down the remains of a JasperSolver's cells.
+ * Rules come in tiers.  Tier 0 rules are cheap and local: they are applied
+ * to each cell taken off the solver's worklist.  Rules of tier 1 and up
+ * look over the whole board, and are only tried once the worklist is empty,
+ * lowest tier first; as soon as one of them changes anything the solver
+ * goes back to the tier 0 rules.  See Rules for the standard ones, and
+ * RuleScheduler for the order they are tried in within a tier.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public interface Rule {
+
+    /**
+     * @return the RuleStats constant this rule is counted under
+     */
+    int getId();
+
+    /**
+     * @return 0 for a rule applied to a cell at a time, or the tier to try
+     * it in once the worklist is empty
+     */
+    int getTier();
+
+    /**
+     * @param solver - the solver to apply the rule to
+     * @param cell - for a tier 0 rule, the open cell to look at, row*9 + col;
+     * otherwise -1
+     * @return true if the rule changed anything
+     * @throws JasperSolver.UnsolvableException - the puzzle turns out to be
+     * unsolvable
+     */
+    boolean apply(JasperSolver solver, int cell) throws JasperSolver.UnsolvableException;
+}
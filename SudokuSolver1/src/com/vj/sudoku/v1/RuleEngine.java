@@ -0,0 +1,57 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Solves with the JasperSolver rules alone, so a puzzle the rules cannot
+ * finish comes back UNSOLVED with the cells they could not fill left at 0.
+ * Unless told otherwise it runs Rules.withForcing(), the standard rules and
+ * checkForcing, as it has nothing else to fall back on.
+ * Givens that clash are reported INVALID before the rules are run, as the
+ * rules only ever look at open cells and would not notice them.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class RuleEngine implements SudokuEngine {
+
+    // one solver for every puzzle, so its RuleScheduler keeps what it has
+    // measured from one to the next
+    private JasperSolver _js = null;
+    private RuleStats _stats = null;
+    private Rule[] _rules = null;
+
+    /**
+     * @param stats - counters for what each rule does, or null
+     */
+    public void setStats(RuleStats stats) {
+        _stats = stats;
+        if (_js != null)
+            _js.setStats(stats);
+    }
+
+    /**
+     * @param rules - the rules to run, or null for Rules.withForcing()
+     */
+    public void setRules(Rule[] rules) {
+        _rules = rules;
+        if (_js != null)
+            _js.setRules(rules != null ? rules : Rules.withForcing());
+    }
+
+    public SolveResult solve(int[] puzzle) {
+        if (!SearchSolver.isConsistent(puzzle))
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, 0);
+        if (_js == null) {
+            _js = new JasperSolver(puzzle);
+            _js.setStats(_stats);
+            _js.setRules(_rules != null ? _rules : Rules.withForcing());
+        } else
+            _js.load(puzzle);
+
+        JasperSolver js = _js;
+        try {
+            return SolveResult.of(js.solveAndReturnPuzzle(), js.getSteps());
+        } catch (JasperSolver.UnsolvableException e) {
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, js.getSteps());
+        }
+    }
+}
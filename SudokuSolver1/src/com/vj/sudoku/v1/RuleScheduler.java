@@ -0,0 +1,208 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Decides the order a JasperSolver tries its rules in.  Tiers always go
+ * lowest first (see Rule); within a tier, the rule that has been taking out
+ * the most candidates per nanosecond goes first, so the others are often
+ * spared because the cell is already placed, or the board already changed.
+ * <br><br>
+ * Every call is counted, along with the candidates it removed and the cells
+ * it placed, but only one call in SAMPLE is timed, as System.nanoTime() can
+ * cost as much as a cheap rule.  The order is worked out again by
+ * reorder(), which the solver calls when it loads a new puzzle; the counts
+ * are halved each time once they grow large, so the order follows the
+ * kind of puzzles being solved now.  Until a rule has been timed it keeps
+ * its place in the order it was given in.
+ *
+ * @author Jasper Lieber
+ *
+ */
+final class RuleScheduler {
+
+    // time one call in this many
+    static final int SAMPLE = 16;
+    private static final int SAMPLE_MASK = SAMPLE - 1;
+    private static final long DECAY_CALLS = 1 << 16;
+
+    private final Rule[] _rules;
+
+    // indexes into _rules: the tier 0 rules, and the rest by tier, each in
+    // the order to try them
+    private final int[] _cellOrder;
+    private final int[] _stallOrder;
+
+    // per rule: calls, candidates removed and cells placed, and timed calls
+    // and their nanoseconds
+    private final long[] _calls;
+    private final long[] _yield;
+    private final long[] _timed;
+    private final long[] _nanos;
+    private boolean _measuring = true;
+
+    /**
+     * @param rules - the rules, in the order to try them until they have
+     * been measured
+     */
+    RuleScheduler(Rule[] rules) {
+        _rules = rules.clone();
+        int cellRules = 0;
+        for (Rule rule : _rules)
+            if (rule.getTier() == 0)
+                cellRules++;
+        _cellOrder = new int[cellRules];
+        _stallOrder = new int[_rules.length - cellRules];
+        _calls = new long[_rules.length];
+        _yield = new long[_rules.length];
+        _timed = new long[_rules.length];
+        _nanos = new long[_rules.length];
+        order();
+    }
+
+    /**
+     * A scheduler for a copy of a solver: the same rules in the same order,
+     * measured from now on separately.
+     */
+    RuleScheduler(RuleScheduler other) {
+        _rules = other._rules;
+        _cellOrder = other._cellOrder.clone();
+        _stallOrder = other._stallOrder.clone();
+        _calls = other._calls.clone();
+        _yield = other._yield.clone();
+        _timed = other._timed.clone();
+        _nanos = other._nanos.clone();
+    }
+
+    Rule[] getRules() {
+        return _rules.clone();
+    }
+
+    /**
+     * @return the RuleStats constant of a rule
+     */
+    int getId(int index) {
+        return _rules[index].getId();
+    }
+
+    /**
+     * @return the tier of a rule
+     */
+    int getTier(int index) {
+        return _rules[index].getTier();
+    }
+
+    /**
+     * @return the tier 0 rules, as indexes for apply(), in the order to try
+     * them; shared, so must not be changed
+     */
+    int[] getCellOrder() {
+        return _cellOrder;
+    }
+
+    /**
+     * @return the other rules, as indexes for apply(), in the order to try
+     * them; shared, so must not be changed
+     */
+    int[] getStallOrder() {
+        return _stallOrder;
+    }
+
+    /**
+     * Stop or start measuring the rules apply() runs.  Work that is to be
+     * undone, such as checkForcing's probes, is not measured, so it does
+     * not bias the order.
+     */
+    void setMeasuring(boolean measuring) {
+        _measuring = measuring;
+    }
+
+    boolean isMeasuring() {
+        return _measuring;
+    }
+
+    /**
+     * Apply one rule, measuring it unless measuring is off.
+     *
+     * @param index - which rule, from getCellOrder() or getStallOrder()
+     * @param solver
+     * @param cell - see Rule.apply()
+     * @return true if the rule changed anything
+     * @throws JasperSolver.UnsolvableException
+     */
+    boolean apply(int index, JasperSolver solver, int cell)
+            throws JasperSolver.UnsolvableException {
+        Rule rule = _rules[index];
+        if (!_measuring)
+            return rule.apply(solver, cell);
+        long before = solver.getChanges();
+        boolean hit;
+        if ((++_calls[index] & SAMPLE_MASK) == 0) {
+            long start = System.nanoTime();
+            hit = rule.apply(solver, cell);
+            _nanos[index] += System.nanoTime() - start;
+            _timed[index]++;
+        } else {
+            hit = rule.apply(solver, cell);
+        }
+        _yield[index] += solver.getChanges() - before;
+        return hit;
+    }
+
+    /**
+     * Work out the order again from what has been measured so far.
+     */
+    void reorder() {
+        order();
+        for (int index = 0; index < _rules.length; index++) {
+            if (_calls[index] > DECAY_CALLS) {
+                _calls[index] >>= 1;
+                _yield[index] >>= 1;
+                _timed[index] >>= 1;
+                _nanos[index] >>= 1;
+            }
+        }
+    }
+
+    private void order() {
+        int cell = 0;
+        int stall = 0;
+        for (int index = 0; index < _rules.length; index++) {
+            if (_rules[index].getTier() == 0)
+                cell = insert(_cellOrder, cell, index);
+            else
+                stall = insert(_stallOrder, stall, index);
+        }
+    }
+
+    /**
+     * Insert a rule into the first count entries of order, after those of
+     * a lower tier or a better rate in the same tier.
+     *
+     * @return count + 1
+     */
+    private int insert(int[] order, int count, int index) {
+        int tier = _rules[index].getTier();
+        double rate = rate(index);
+        int at = count;
+        while (at > 0) {
+            int prev = order[at - 1];
+            int prevTier = _rules[prev].getTier();
+            if (prevTier < tier || (prevTier == tier && rate(prev) >= rate))
+                break;
+            order[at] = prev;
+            at--;
+        }
+        order[at] = index;
+        return count + 1;
+    }
+
+    /**
+     * @return candidates removed and cells placed per nanosecond, or
+     * infinity if the rule has not been timed yet
+     */
+    private double rate(int index) {
+        if (_timed[index] == 0 || _nanos[index] == 0)
+            return Double.POSITIVE_INFINITY;
+        double nanosPerCall = (double) _nanos[index] / _timed[index];
+        return _yield[index] / (nanosPerCall * _calls[index]);
+    }
+}
@@ -0,0 +1,131 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Counters for each of the JasperSolver rules: how many times it ran, how
+ * many candidates it eliminated, how many cells it placed, and the
+ * nanoseconds it took.  Hand one to a solver (or to SearchSolver or
+ * RuleEngine) with setStats() to start counting; without one, the rules pay
+ * only a null check.  A call of cleanOtherSquares, or of any rule above
+ * tier 0 (see Rule), is one try of it over the board, however many squares
+ * that took.
+ * <br><br>
+ * The counters are plain longs, so a RuleStats must only be updated by one
+ * thread.  For solvers on several threads give each its own, then add()
+ * their snapshots together.  A snapshot is a copy that the solver no longer
+ * updates.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class RuleStats {
+
+    public static final int CHECK_ROWS_COLS_SQRS = 0;
+    public static final int CHECK_CAN_ONLY_BE_ONE_SQR = 1;
+    public static final int CHECK_CAN_ONLY_BE_ONE_CHECK_COL = 2;
+    public static final int CHECK_CAN_ONLY_BE_ONE_CHECK_ROW = 3;
+    public static final int CHECK_THREES = 4;
+    public static final int CLEAN_OTHER_SQUARES = 5;
+    public static final int CHECK_NAKED_SUBSETS = 6;
+    public static final int CHECK_HIDDEN_SUBSETS = 7;
+    public static final int CHECK_FISH = 8;
+    public static final int CHECK_FORCING = 9;
+    public static final int RULES = 10;
+
+    private static final String[] NAMES = {
+        "checkRowsColsSqrs",
+        "checkCanOnlyBeOneSqr",
+        "checkCanOnlyBeOneCheckCol",
+        "checkCanOnlyBeOneCheckRow",
+        "checkThrees",
+        "cleanOtherSquares",
+        "checkNakedSubsets",
+        "checkHiddenSubsets",
+        "checkFish",
+        "checkForcing"
+    };
+
+    // updated directly by JasperSolver
+    final long[] _invocations = new long[RULES];
+    final long[] _eliminations = new long[RULES];
+    final long[] _placements = new long[RULES];
+    final long[] _nanos = new long[RULES];
+
+    /**
+     * @param rule - one of the rule constants
+     * @return the name of the rule's method
+     */
+    public static String getName(int rule) {
+        return NAMES[rule];
+    }
+
+    public long getInvocations(int rule) {
+        return _invocations[rule];
+    }
+
+    /**
+     * @return the number of candidates the rule removed from cells' remains
+     */
+    public long getEliminations(int rule) {
+        return _eliminations[rule];
+    }
+
+    /**
+     * @return the number of cells the rule found the value of
+     */
+    public long getPlacements(int rule) {
+        return _placements[rule];
+    }
+
+    public long getNanos(int rule) {
+        return _nanos[rule];
+    }
+
+    /**
+     * @return a copy of the counters as they are now
+     */
+    public RuleStats snapshot() {
+        RuleStats copy = new RuleStats();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Add another set of counters to these.
+     *
+     * @param other
+     */
+    public void add(RuleStats other) {
+        for (int rule = 0; rule < RULES; rule++) {
+            _invocations[rule] += other._invocations[rule];
+            _eliminations[rule] += other._eliminations[rule];
+            _placements[rule] += other._placements[rule];
+            _nanos[rule] += other._nanos[rule];
+        }
+    }
+
+    public void reset() {
+        for (int rule = 0; rule < RULES; rule++) {
+            _invocations[rule] = 0;
+            _eliminations[rule] = 0;
+            _placements[rule] = 0;
+            _nanos[rule] = 0;
+        }
+    }
+
+    /**
+     * @return a table with a line per rule
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-26s %12s %12s %10s %10s %10s%n", "rule",
+                "calls", "eliminated", "placed", "ms", "ns/call"));
+        for (int rule = 0; rule < RULES; rule++) {
+            sb.append(String.format("%-26s %12d %12d %10d %10.1f %10.1f%n",
+                    NAMES[rule], _invocations[rule], _eliminations[rule],
+                    _placements[rule], _nanos[rule] / 1e6,
+                    _invocations[rule] == 0 ? 0.0 : (double) _nanos[rule] / _invocations[rule]));
+        }
+        return sb.toString();
+    }
+}
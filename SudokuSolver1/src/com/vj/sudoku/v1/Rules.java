@@ -0,0 +1,180 @@
+package com.vj.sudoku.v1;
+
+/**
+ * The JasperSolver rules as Rule objects, for handing to a solver's
+ * setRules().  The first five look at one cell at a time; once those have
+ * stalled, cleanOtherSquares looks at the squares marked since it last ran.
+ * Once that has stalled as well, the subset rules look at the rows, columns
+ * and squares changed since they last ran, and checkFish at the values
+ * whose cells have.  Last of all, checkForcing tries values out with the
+ * rest of the rules; a probe costs about as much as a search node, so it
+ * is only in withForcing(), for the rules-only engine.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class Rules {
+
+    private Rules() {
+    }
+
+    public static final Rule CHECK_ROWS_COLS_SQRS = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_ROWS_COLS_SQRS;
+        }
+        public int getTier() {
+            return 0;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkRowsColsSqrs(cell / 9, cell % 9);
+        }
+    };
+
+    public static final Rule CHECK_CAN_ONLY_BE_ONE_SQR = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_CAN_ONLY_BE_ONE_SQR;
+        }
+        public int getTier() {
+            return 0;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkCanOnlyBeOneSqr(cell / 9, cell % 9);
+        }
+    };
+
+    public static final Rule CHECK_CAN_ONLY_BE_ONE_CHECK_COL = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_CAN_ONLY_BE_ONE_CHECK_COL;
+        }
+        public int getTier() {
+            return 0;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkCanOnlyBeOneCheckCol(cell / 9, cell % 9);
+        }
+    };
+
+    public static final Rule CHECK_CAN_ONLY_BE_ONE_CHECK_ROW = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_CAN_ONLY_BE_ONE_CHECK_ROW;
+        }
+        public int getTier() {
+            return 0;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkCanOnlyBeOneCheckRow(cell / 9, cell % 9);
+        }
+    };
+
+    public static final Rule CHECK_THREES = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_THREES;
+        }
+        public int getTier() {
+            return 0;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkThrees(cell / 9, cell % 9);
+        }
+    };
+
+    public static final Rule CLEAN_OTHER_SQUARES = new Rule() {
+        public int getId() {
+            return RuleStats.CLEAN_OTHER_SQUARES;
+        }
+        public int getTier() {
+            return 1;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.cleanDirtySquares();
+        }
+    };
+
+    public static final Rule CHECK_FISH = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_FISH;
+        }
+        public int getTier() {
+            return 2;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkDirtyFish();
+        }
+    };
+
+    public static final Rule CHECK_NAKED_SUBSETS = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_NAKED_SUBSETS;
+        }
+        public int getTier() {
+            return 2;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkDirtyNakedSubsets();
+        }
+    };
+
+    public static final Rule CHECK_HIDDEN_SUBSETS = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_HIDDEN_SUBSETS;
+        }
+        public int getTier() {
+            return 2;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkDirtyHiddenSubsets();
+        }
+    };
+
+    public static final Rule CHECK_FORCING = new Rule() {
+        public int getId() {
+            return RuleStats.CHECK_FORCING;
+        }
+        public int getTier() {
+            return 3;
+        }
+        public boolean apply(JasperSolver solver, int cell)
+                throws JasperSolver.UnsolvableException {
+            return solver.checkForcing(getTier() - 1);
+        }
+    };
+
+    /**
+     * @return the rules a JasperSolver uses unless told otherwise: the six
+     * it has always used, in the order it used to apply them, then the fish
+     * and subset rules
+     */
+    public static Rule[] standard() {
+        return new Rule[] {
+            CHECK_ROWS_COLS_SQRS,
+            CHECK_CAN_ONLY_BE_ONE_SQR,
+            CHECK_CAN_ONLY_BE_ONE_CHECK_COL,
+            CHECK_CAN_ONLY_BE_ONE_CHECK_ROW,
+            CHECK_THREES,
+            CLEAN_OTHER_SQUARES,
+            CHECK_FISH,
+            CHECK_NAKED_SUBSETS,
+            CHECK_HIDDEN_SUBSETS
+        };
+    }
+
+    /**
+     * @return the standard() rules, then the forcing rule
+     */
+    public static Rule[] withForcing() {
+        Rule[] standard = standard();
+        Rule[] rules = new Rule[standard.length + 1];
+        System.arraycopy(standard, 0, rules, 0, standard.length);
+        rules[standard.length] = CHECK_FORCING;
+        return rules;
+    }
+}
@@ -0,0 +1,274 @@
+package com.vj.sudoku.v1;
+
+/**
+ * A complete solver: runs the JasperSolver rules, and whenever they stall
+ * picks the open cell with the fewest remains, tries each of its values in
+ * turn, and runs the rules again on the result.  A value that leads the
+ * rules to an UnsolvableException (or to a full grid that breaks a row,
+ * column or square) is abandoned and the next one tried, so every puzzle
+ * that has a solution is solved, and one that has none is reported INVALID.
+ * <br><br>
+ * countSolutions() runs the same search but carries on past the first
+ * solution, stopping as soon as it has found as many as asked for, so
+ * checking that a puzzle has exactly one costs little more than solving it.
+ * <br><br>
+ * The rules up to ROOT_TIER are run before the first guess, so a puzzle
+ * they can finish is never searched; below that, only the rules up to
+ * NODE_TIER are run at each node, as the dearer ones were measured to cost
+ * more time than the nodes they save.  checkForcing, above ROOT_TIER, tries
+ * values out much as the search does, but all of them, so is left out.
+ * <br><br>
+ * The whole search runs in one JasperSolver.  Before trying the values of
+ * a cell the search marks the solver's trail, and after each one it undoes
+ * back to the mark, so a node costs only the changes its value led to, and
+ * apart from the first call no solver state is allocated.
+ * <br><br>
+ * Given a TranspositionTable, the search records each value it tried that
+ * led to no solution, by the hash of the values placed once it was, and
+ * skips any value whose hash is recorded.  Whether a placement leads
+ * anywhere does not depend on the puzzle, so this pays where one search
+ * follows another over much the same placements, as PuzzleGenerator's
+ * checks do; within one search the same placement is not met twice.  The
+ * table may be shared with other searches, on other threads.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class SearchSolver implements SudokuEngine {
+
+    /** The highest tier of rules run before the first guess. */
+    static final int ROOT_TIER = 2;
+
+    /** The highest tier of rules run at each node below the root. */
+    static final int NODE_TIER = 1;
+
+    private JasperSolver _js = null;
+
+    private long _nodes = 0;
+    private long _steps = 0;
+    private int[] _solution = null;
+    private int _count = 0;
+    private int _limit = 1;
+    private RuleStats _stats = null;
+    private Rule[] _rules = null;
+    private ProgressReporter _progress = null;
+    private TranspositionTable _table = null;
+    private long _cutoffs = 0;
+
+    /**
+     * @param progress - told the node count as the search goes, or null
+     */
+    public void setProgress(ProgressReporter progress) {
+        _progress = progress;
+    }
+
+    /**
+     * @param table - where to record and look up dead nodes, or null for
+     * none; may be shared with other searches
+     */
+    public void setTable(TranspositionTable table) {
+        _table = table;
+    }
+
+    /**
+     * @param stats - counters for what each rule does, or null
+     */
+    public void setStats(RuleStats stats) {
+        _stats = stats;
+        if (_js != null)
+            _js.setStats(stats);
+    }
+
+    /**
+     * @param rules - the rules to run, or null for Rules.standard()
+     */
+    public void setRules(Rule[] rules) {
+        _rules = rules;
+        if (_js != null)
+            _js.setRules(rules != null ? rules : Rules.standard());
+    }
+
+    public SolveResult solve(int[] puzzle) {
+        run(puzzle, 1);
+        if (_solution == null)
+            return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, _steps);
+        return new SolveResult(_solution, SolveResult.Status.SOLVED, _steps);
+    }
+
+    /**
+     * Count the solutions of a puzzle, up to limit.  A puzzle is proper
+     * when countSolutions(puzzle, 2) is 1.
+     *
+     * @param puzzle - 81 values in row order, 0 for blanks
+     * @param limit - stop searching once this many solutions are found
+     * @return the number of solutions, or limit if there are at least that many
+     */
+    public int countSolutions(int[] puzzle, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit " + limit);
+        run(puzzle, limit);
+        return _count;
+    }
+
+    private void run(int[] puzzle, int limit) {
+        _nodes = 0;
+        _cutoffs = 0;
+        _steps = 0;
+        _solution = null;
+        _count = 0;
+        _limit = limit;
+
+        if (!isConsistent(puzzle))
+            return;
+
+        if (_js == null) {
+            _js = new JasperSolver(puzzle);
+            _js.setStats(_stats);
+            if (_rules != null)
+                _js.setRules(_rules);
+        } else
+            _js.load(puzzle);
+
+        try {
+            _js.propagate(ROOT_TIER);
+            search();
+        } catch (JasperSolver.UnsolvableException e) {
+            // no solution
+        } finally {
+            _steps = _js.getSteps();
+        }
+    }
+
+    /**
+     * @return the number of values tried by the last solve() or countSolutions()
+     */
+    public long getNodes() {
+        return _nodes;
+    }
+
+    /**
+     * @return the number of values the last solve() or countSolutions()
+     * skipped because the table had them as dead
+     */
+    public long getCutoffs() {
+        return _cutoffs;
+    }
+
+    /**
+     * Search below the current, already propagated, state of the solver.
+     * Unless the limit is reached, the state is the same on return.
+     *
+     * @return true once the limit of solutions has been found
+     */
+    private boolean search() {
+        JasperSolver js = _js;
+
+        int cell = pickCell(js);
+        if (cell < 0) {
+            // every cell is filled; the rules can leave a broken grid
+            // behind once a wrong guess has been made, so check it
+            int[] grid = js.ssToIntArray();
+            if (!isValid(grid))
+                return false;
+            if (_solution == null)
+                _solution = grid;
+            return ++_count >= _limit;
+        }
+        int row = cell / 9;
+        int col = cell % 9;
+        int remains = js.getRemains(row, col);
+        if (remains == Candidates.NONE)
+            return false;
+        TranspositionTable table = _table;
+        long hash = js.getHash();
+
+        int mark = js.mark();
+        for (; remains != 0; remains &= remains - 1) {
+            int val = Candidates.first(remains);
+            long child = hash ^ JasperSolver.hashOf(cell, val);
+            if (table != null && table.isDead(child)) {
+                _cutoffs++;
+                continue;
+            }
+            _nodes++;
+            if (_progress != null)
+                _progress.report(_nodes);
+            int count = _count;
+            try {
+                js.assign(row, col, val);
+                js.propagate(NODE_TIER);
+            } catch (JasperSolver.UnsolvableException e) {
+                js.undo(mark);
+                if (table != null)
+                    table.addDead(child);
+                continue;
+            }
+            if (search())
+                return true;
+            js.undo(mark);
+            if (table != null && _count == count)
+                table.addDead(child);
+        }
+        js.release(mark);
+        return false;
+    }
+
+    /**
+     * @return the open cell with the fewest remains, or -1 if none is open
+     */
+    static int pickCell(JasperSolver js) {
+        int best = -1;
+        int bestCount = 10;
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                if (js.getTile(row, col) != 0)
+                    continue;
+                int count = Candidates.count(js.getRemains(row, col));
+                if (count < bestCount) {
+                    best = row*9 + col;
+                    bestCount = count;
+                    if (count <= 1)
+                        return best;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param grid - 81 values in row order
+     * @return true if every row, column and square holds 1-9 exactly once
+     */
+    static boolean isValid(int[] grid) {
+        for (int value : grid)
+            if (value == 0)
+                return false;
+        return isConsistent(grid);
+    }
+
+    /**
+     * @param grid - 81 values in row order, 0 for blanks
+     * @return true if no value appears twice in a row, column or square
+     */
+    static boolean isConsistent(int[] grid) {
+        for (int nn = 0; nn < 9; nn++) {
+            int row = 0, col = 0, sqr = 0;
+            for (int kk = 0; kk < 9; kk++) {
+                int rowVal = grid[nn*9 + kk];
+                int colVal = grid[kk*9 + nn];
+                int sqrVal = grid[((nn/3)*3 + kk/3)*9 + (nn%3)*3 + kk%3];
+                if ((row & bitOf(rowVal)) != 0 || (col & bitOf(colVal)) != 0
+                        || (sqr & bitOf(sqrVal)) != 0)
+                    return false;
+                row |= bitOf(rowVal);
+                col |= bitOf(colVal);
+                sqr |= bitOf(sqrVal);
+            }
+        }
+        return true;
+    }
+
+    private static int bitOf(int val) {
+        return val == 0 ? 0 : Candidates.bit(val);
+    }
+}
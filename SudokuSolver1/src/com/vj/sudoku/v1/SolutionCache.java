@@ -0,0 +1,140 @@
+package com.vj.sudoku.v1;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers what an engine made of recent 9x9 puzzles, so a puzzle seen
+ * before, or one that is a relabelled, reflected or shuffled copy of one
+ * seen before (see CanonicalForm), costs a lookup instead of a solve.
+ * <br><br>
+ * Results are kept under the puzzle's own text, which answers an exact
+ * repeat without working out its canonical form, and under its canonical
+ * puzzle, moved to match that; a copy found that way is moved back to
+ * match the puzzle asked about.  A puzzle with more than one solution may
+ * get a different one of them back than its engine would have given.
+ * The least recently used results are dropped once there are more than the
+ * capacity.  One cache may be shared by the engines of several threads;
+ * each thread still needs its own engine from wrap().
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class SolutionCache {
+
+    private final Map<String, SolveResult> _results;
+    private long _hits = 0;
+    private long _canonicalHits = 0;
+    private long _misses = 0;
+
+    /**
+     * @param capacity - the most results to keep; each puzzle solved takes
+     * up to two
+     */
+    public SolutionCache(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity " + capacity);
+        _results = new LinkedHashMap<String, SolveResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SolveResult> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param engine - solves what is not in the cache; not shared, so it
+     * is only to be used through the engine returned
+     * @return an engine that looks in this cache first, and adds to it
+     */
+    public SudokuEngine wrap(final SudokuEngine engine) {
+        return new SudokuEngine() {
+            public SolveResult solve(int[] puzzle) {
+                return SolutionCache.this.solve(engine, puzzle);
+            }
+        };
+    }
+
+    private SolveResult solve(SudokuEngine engine, int[] puzzle) {
+        String key = PuzzleFormat.toString(puzzle);
+        SolveResult found = get(key, false);
+        if (found != null)
+            return copy(found.getGrid().clone(), found);
+
+        CanonicalForm canonical = CanonicalForm.of(puzzle);
+        String canonicalKey = canonical.getKey();
+        found = get(canonicalKey, true);
+        if (found != null) {
+            int[] grid = canonical.fromCanonical(found.getGrid());
+            put(key, copy(grid.clone(), found));
+            return copy(grid, found);
+        }
+
+        SolveResult result = engine.solve(puzzle);
+        synchronized (this) {
+            _misses++;
+        }
+        put(key, copy(result.getGrid().clone(), result));
+        put(canonicalKey, copy(canonical.toCanonical(result.getGrid()), result));
+        return result;
+    }
+
+    private synchronized SolveResult get(String key, boolean canonical) {
+        SolveResult found = _results.get(key);
+        if (found != null) {
+            if (canonical)
+                _canonicalHits++;
+            else
+                _hits++;
+        }
+        return found;
+    }
+
+    private synchronized void put(String key, SolveResult result) {
+        _results.put(key, result);
+    }
+
+    /**
+     * @param grid - not shared with anything else
+     * @return a result with grid and the status of result, that took no work
+     */
+    private static SolveResult copy(int[] grid, SolveResult result) {
+        return new SolveResult(grid, result.getStatus(), 0);
+    }
+
+    /**
+     * @return how many puzzles were found as they were asked
+     */
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    /**
+     * @return how many puzzles were found by their canonical form
+     */
+    public synchronized long getCanonicalHits() {
+        return _canonicalHits;
+    }
+
+    /**
+     * @return how many puzzles had to be solved
+     */
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    /**
+     * @return how many results are kept now
+     */
+    public synchronized int size() {
+        return _results.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("cache: %d hits, %d canonical hits, %d misses, %d kept",
+                _hits, _canonicalHits, _misses, _results.size());
+    }
+}
@@ -0,0 +1,66 @@
+package com.vj.sudoku.v1;
+
+/**
+ * What a SudokuEngine made of one puzzle: the grid as far as it got, whether
+ * that is a solution, and how much work it took.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class SolveResult {
+
+    public enum Status {
+        /** every cell is filled */
+        SOLVED,
+        /** the engine stopped with cells still open */
+        UNSOLVED,
+        /** the puzzle has no solution */
+        INVALID
+    }
+
+    private final int[] _grid;
+    private final Status _status;
+    private final long _steps;
+
+    /**
+     * @param grid - a value per cell in row order, 0 for cells left open
+     * @param status
+     * @param steps - the engine's measure of work done
+     */
+    public SolveResult(int[] grid, Status status, long steps) {
+        _grid = grid;
+        _status = status;
+        _steps = steps;
+    }
+
+    /**
+     * Build the result for a grid that was not found to be invalid.
+     */
+    static SolveResult of(int[] grid, long steps) {
+        for (int value : grid)
+            if (value == 0)
+                return new SolveResult(grid, Status.UNSOLVED, steps);
+        return new SolveResult(grid, Status.SOLVED, steps);
+    }
+
+    public int[] getGrid() {
+        return _grid;
+    }
+
+    public Status getStatus() {
+        return _status;
+    }
+
+    public boolean isSolved() {
+        return _status == Status.SOLVED;
+    }
+
+    public long getSteps() {
+        return _steps;
+    }
+
+    @Override
+    public String toString() {
+        return PuzzleFormat.toString(_grid) + " " + _status + " " + _steps;
+    }
+}
@@ -0,0 +1,22 @@
+package com.vj.sudoku.v1;
+
+/**
+ * Where JasperSolver sends its debugging output.  The solver itself has no
+ * Android dependencies, so the app installs a SolverLog that forwards to
+ * android.util.Log, while the command line tools keep the default, which
+ * writes to System.err.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public interface SolverLog {
+
+    /** Writes each line to System.err. */
+    SolverLog STDERR = new SolverLog() {
+        public void println(String string) {
+            System.err.println(string);
+        }
+    };
+
+    void println(String string);
+}
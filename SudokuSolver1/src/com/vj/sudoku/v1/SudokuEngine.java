@@ -0,0 +1,18 @@
+package com.vj.sudoku.v1;
+
+/**
+ * A way of solving puzzles.  An engine may keep scratch state between
+ * calls, so one instance must not be shared between threads.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public interface SudokuEngine {
+
+    /**
+     * @param puzzle - 81 values in row order, 0 for blanks (for a
+     * WideSolver, as many as its Geometry has cells); not modified
+     * @return the grid the engine arrived at, and whether it is solved
+     */
+    SolveResult solve(int[] puzzle);
+}
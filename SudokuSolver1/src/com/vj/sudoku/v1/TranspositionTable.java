@@ -0,0 +1,63 @@
+package com.vj.sudoku.v1;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the sets of placed values a search has found to lead nowhere,
+ * by their JasperSolver.getHash(), so that a search reaching one again by
+ * another order of guesses can give it up at once.  Whether any solution
+ * extends a set of placed values does not depend on the order they were
+ * found in, or even on the puzzle (its givens are among them), so one table
+ * may serve any number of solves.
+ * <br><br>
+ * The table is a fixed power of two of slots, each holding one hash, picked
+ * by its low bits; a new hash simply overwrites the one in its slot.  Slots
+ * are read and written whole and without locks, so the searches of several
+ * threads can share a table.  A hash is 64 bits, and all of it is compared,
+ * so two sets of placed values are only taken for each other if their
+ * hashes collide outright.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public final class TranspositionTable {
+
+    private final AtomicLongArray _slots;
+    private final int _mask;
+
+    /**
+     * @param bits - the table has 1 << bits slots, of 8 bytes each
+     */
+    public TranspositionTable(int bits) {
+        if (bits < 1 || bits > 30)
+            throw new IllegalArgumentException("bits " + bits);
+        _slots = new AtomicLongArray(1 << bits);
+        _mask = (1 << bits) - 1;
+    }
+
+    /**
+     * @param hash - from JasperSolver.getHash()
+     * @return true if hash was recorded as dead, and has not been overwritten
+     */
+    public boolean isDead(long hash) {
+        return hash != 0 && _slots.get((int) hash & _mask) == hash;
+    }
+
+    /**
+     * Record that no solution extends the values placed.
+     *
+     * @param hash - from JasperSolver.getHash()
+     */
+    public void addDead(long hash) {
+        _slots.lazySet((int) hash & _mask, hash);
+    }
+
+    /**
+     * Forget everything recorded.  Not to be called while a search is using
+     * the table.
+     */
+    public void clear() {
+        for (int slot = 0; slot <= _mask; slot++)
+            _slots.set(slot, 0);
+    }
+}
@@ -0,0 +1,488 @@
+package com.vj.sudoku.v1;
+
+import java.util.Random;
+
+/**
+ * A complete solver for boards of any Geometry: 16x16, 25x25 and up, as
+ * well as the standard 9x9.  Where JasperSolver packs a cell's remains into
+ * a short and does its row, column and square arithmetic inline for 9x9,
+ * this one holds each cell's candidates in a long (bit val-1, as in
+ * Candidates) and takes units and peers from the Geometry's tables.
+ * <br><br>
+ * Three rules run to a fixpoint: a cell with one candidate left is placed,
+ * a value with one cell left in a unit is placed there, and a value confined
+ * to where a line crosses a square is taken out of the rest of both.  When
+ * they stall the search picks the open cell with the fewest candidates, or
+ * the value with the fewest cells left in a unit if that is no more, and
+ * tries each in turn, undoing back to a mark on the trail after each, as
+ * SearchSolver does.
+ * <br><br>
+ * On big boards with many blanks a wrong early guess can leave the search
+ * a huge dead subtree to finish before it is undone, so runs of very
+ * different lengths turn up on puzzles that look alike.  The search is
+ * therefore given a budget of nodes and, if it runs out, started again from
+ * the top with ties broken differently and twice the budget.  The budgets
+ * grow until one covers the whole tree, so a puzzle with no solution is
+ * still found INVALID.  The state is one int and one long per cell and one
+ * long per unit, and is allocated once per solver, so a solver should be
+ * kept and reused for a stream of puzzles of the same size.
+ *
+ * @author Jasper Lieber
+ *
+ */
+public class WideSolver implements SudokuEngine {
+
+    private final Geometry _geometry;
+    private final int _cells;
+
+    private final int[] _grid;
+    private final long[] _remains;
+    // the values not yet placed in each unit
+    private final long[] _free;
+
+    // cells whose remains are down to one value, waiting to be placed
+    private final int[] _singles;
+    private int _singlesTop = 0;
+    // a bit per unit whose cells' remains have changed since it was checked
+    // for values with only one place left
+    private final long[] _dirtyUnits;
+
+    // the trail: each change since load(), as the cell (~cell for a
+    // placement) and its remains before.  A cell loses a value at most
+    // size times and is placed once, so size+1 entries per cell is enough.
+    private final int[] _trailCells;
+    private final long[] _trailRemains;
+    private int _trailTop = 0;
+
+    // the unit and value pickPlace() found
+    private int _pickUnit;
+    private int _pickVal;
+
+    // scratch space for checkIntersections, so it does not allocate
+    private final long[] _segs;
+
+    // the first search's budget of nodes, doubled for each restart
+    private static final long FIRST_BUDGET = 1000;
+    private static final long SEED = 1;
+    private final Random _random = new Random();
+    private long _nodeLimit = 0;
+    private boolean _cutoff = false;
+
+    private long _steps = 0;
+    private long _nodes = 0;
+
+    /**
+     * @param geometry - the size of board this solver takes
+     */
+    public WideSolver(Geometry geometry) {
+        _geometry = geometry;
+        _cells = geometry.getCells();
+        _grid = new int[_cells];
+        _remains = new long[_cells];
+        _free = new long[geometry.getUnits()];
+        _singles = new int[_cells];
+        _dirtyUnits = new long[(geometry.getUnits() + 63) >> 6];
+        _trailCells = new int[_cells * (geometry.getSize() + 1)];
+        _trailRemains = new long[_trailCells.length];
+        _segs = new long[geometry.getBox()];
+    }
+
+    public Geometry getGeometry() {
+        return _geometry;
+    }
+
+    /**
+     * @param puzzle - getCells() values in row order, 0 for blanks
+     */
+    public SolveResult solve(int[] puzzle) {
+        if (puzzle.length != _cells)
+            throw new IllegalArgumentException(puzzle.length + " cells, not " + _cells);
+        _steps = 0;
+        _nodes = 0;
+        _random.setSeed(SEED);
+        if (load(puzzle) && propagate()) {
+            for (long budget = FIRST_BUDGET; ; budget *= 2) {
+                _nodeLimit = _nodes + budget;
+                _cutoff = false;
+                if (search())
+                    return new SolveResult(_grid.clone(), SolveResult.Status.SOLVED, _steps);
+                if (!_cutoff)
+                    break;
+            }
+        }
+        return new SolveResult(puzzle.clone(), SolveResult.Status.INVALID, _steps);
+    }
+
+    /**
+     * @return the number of values tried by the last solve(), over all its
+     * restarts
+     */
+    public long getNodes() {
+        return _nodes;
+    }
+
+    private boolean load(int[] puzzle) {
+        long all = _geometry.getAll();
+        for (int cell = 0; cell < _cells; cell++) {
+            _grid[cell] = 0;
+            _remains[cell] = all;
+        }
+        for (int nn = 0; nn < _dirtyUnits.length; nn++)
+            _dirtyUnits[nn] = 0;
+        for (int unit = 0; unit < _free.length; unit++) {
+            _free[unit] = all;
+            _dirtyUnits[unit >> 6] |= 1L << unit;
+        }
+        _singlesTop = 0;
+        _trailTop = 0;
+
+        int size = _geometry.getSize();
+        for (int cell = 0; cell < _cells; cell++) {
+            int val = puzzle[cell];
+            if (val < 0 || val > size)
+                return false;
+            if (val != 0 && !place(cell, val))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Place a value and take it out of the remains of the cell's peers.
+     *
+     * @return false if that leaves the puzzle unsolvable
+     */
+    private boolean place(int cell, int val) {
+        if (_grid[cell] != 0)
+            return _grid[cell] == val;
+        long bit = 1L << (val - 1);
+        if ((_remains[cell] & bit) == 0)
+            return false;
+        int[] units = _geometry.getCellUnits(cell);
+        for (int unit : units)
+            if ((_free[unit] & bit) == 0)
+                return false;
+
+        _steps++;
+        _trailCells[_trailTop] = ~cell;
+        _trailRemains[_trailTop++] = _remains[cell];
+        _grid[cell] = val;
+        _remains[cell] = bit;
+        for (int unit : units) {
+            _free[unit] &= ~bit;
+            _dirtyUnits[unit >> 6] |= 1L << unit;
+        }
+
+        int[] peers = _geometry.getPeers(cell);
+        for (int nn = 0; nn < peers.length; nn++)
+            if (!remove(peers[nn], bit))
+                return false;
+        return true;
+    }
+
+    /**
+     * Take the values in mask out of an open cell's remains.
+     *
+     * @return false if that leaves it none
+     */
+    private boolean remove(int cell, long mask) {
+        long remains = _remains[cell];
+        if ((remains & mask) == 0 || _grid[cell] != 0)
+            return true;
+        _steps++;
+        _trailCells[_trailTop] = cell;
+        _trailRemains[_trailTop++] = remains;
+        remains &= ~mask;
+        _remains[cell] = remains;
+        if (remains == 0)
+            return false;
+        if ((remains & (remains - 1)) == 0)
+            _singles[_singlesTop++] = cell;
+        for (int unit : _geometry.getCellUnits(cell))
+            _dirtyUnits[unit >> 6] |= 1L << unit;
+        return true;
+    }
+
+    /**
+     * Place cells with one value left, and values with one cell left in a
+     * unit, and clean up after values confined to where a line crosses a
+     * square, until there is nothing more to do.
+     *
+     * @return false if the puzzle turns out to be unsolvable
+     */
+    private boolean propagate() {
+        while (true) {
+            while (_singlesTop > 0) {
+                int cell = _singles[--_singlesTop];
+                if (_grid[cell] == 0
+                        && !place(cell, Long.numberOfTrailingZeros(_remains[cell]) + 1))
+                    return false;
+            }
+
+            int unit = nextDirtyUnit();
+            if (unit < 0)
+                return true;
+            if (!checkHiddenSingles(unit) || !checkIntersections(unit))
+                return false;
+        }
+    }
+
+    private int nextDirtyUnit() {
+        for (int word = 0; word < _dirtyUnits.length; word++) {
+            long bits = _dirtyUnits[word];
+            if (bits != 0) {
+                int unit = (word << 6) + Long.numberOfTrailingZeros(bits);
+                _dirtyUnits[word] = bits & (bits - 1);
+                return unit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Place each value that has only one cell left in the unit.
+     *
+     * @return false if a value has no cell left
+     */
+    private boolean checkHiddenSingles(int unit) {
+        int[] cells = _geometry.getUnitCells(unit);
+        long once = 0;
+        long twice = 0;
+        for (int nn = 0; nn < cells.length; nn++) {
+            int cell = cells[nn];
+            if (_grid[cell] != 0)
+                continue;
+            long remains = _remains[cell];
+            twice |= once & remains;
+            once |= remains;
+        }
+        long free = _free[unit];
+        if ((free & ~once) != 0)
+            return false;
+
+        for (long hidden = free & once & ~twice; hidden != 0; hidden &= hidden - 1) {
+            long bit = hidden & -hidden;
+            for (int nn = 0; nn < cells.length; nn++) {
+                int cell = cells[nn];
+                if (_grid[cell] == 0 && (_remains[cell] & bit) != 0) {
+                    if (!place(cell, Long.numberOfTrailingZeros(bit) + 1))
+                        return false;
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The values that can go in only one of a unit's crossings with other
+     * units must go there, so take them out of the rest of the other unit:
+     * a row's or column's values that are confined to one square, from the
+     * rest of that square, and a square's values confined to one of its rows
+     * or columns, from the rest of that row or column.  This is
+     * cleanOtherSquares for any size of board, done a unit at a time.
+     *
+     * @return false if a cell is left with no remains
+     */
+    private boolean checkIntersections(int unit) {
+        int box = _geometry.getBox();
+        int size = _geometry.getSize();
+        int[] cells = _geometry.getUnitCells(unit);
+        long free = _free[unit];
+        if (Long.bitCount(free) < 2)
+            return true;
+
+        long[] segs = _segs;
+        if (unit < 2 * size) {
+            // a row or column: its cells run a square at a time
+            for (int seg = 0; seg < box; seg++) {
+                long or = 0;
+                for (int nn = seg * box; nn < seg * box + box; nn++)
+                    if (_grid[cells[nn]] == 0)
+                        or |= _remains[cells[nn]];
+                segs[seg] = or;
+            }
+            for (int seg = 0; seg < box; seg++) {
+                long only = confined(segs, seg) & free;
+                if (only == 0)
+                    continue;
+                int sqr = _geometry.getCellUnits(cells[seg * box])[2];
+                int kind = unit < size ? 0 : 1;
+                int[] sqrCells = _geometry.getUnitCells(sqr);
+                for (int nn = 0; nn < sqrCells.length; nn++)
+                    if (_geometry.getCellUnits(sqrCells[nn])[kind] != unit
+                            && !remove(sqrCells[nn], only))
+                        return false;
+            }
+            return true;
+        }
+
+        // a square: its cells run a row at a time; look at its rows, then
+        // its columns
+        for (int kind = 0; kind < 2; kind++) {
+            for (int seg = 0; seg < box; seg++) {
+                long or = 0;
+                for (int nn = 0; nn < box; nn++) {
+                    int cell = cells[kind == 0 ? seg * box + nn : nn * box + seg];
+                    if (_grid[cell] == 0)
+                        or |= _remains[cell];
+                }
+                segs[seg] = or;
+            }
+            for (int seg = 0; seg < box; seg++) {
+                long only = confined(segs, seg) & free;
+                if (only == 0)
+                    continue;
+                int line = _geometry.getCellUnits(
+                        cells[kind == 0 ? seg * box : seg])[kind];
+                int[] lineCells = _geometry.getUnitCells(line);
+                for (int nn = 0; nn < lineCells.length; nn++)
+                    if (_geometry.getCellUnits(lineCells[nn])[2] != unit
+                            && !remove(lineCells[nn], only))
+                        return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the values in segs[seg] that are in none of the other segs
+     */
+    private long confined(long[] segs, int seg) {
+        long others = 0;
+        for (int nn = 0; nn < _geometry.getBox(); nn++)
+            if (nn != seg)
+                others |= segs[nn];
+        return segs[seg] & ~others;
+    }
+
+    /**
+     * Put the state back as it was when the trail was mark long.
+     *
+     * @param mark
+     */
+    private void undo(int mark) {
+        while (_trailTop > mark) {
+            int cell = _trailCells[--_trailTop];
+            if (cell < 0) {
+                cell = ~cell;
+                long bit = 1L << (_grid[cell] - 1);
+                for (int unit : _geometry.getCellUnits(cell))
+                    _free[unit] |= bit;
+                _grid[cell] = 0;
+            }
+            _remains[cell] = _trailRemains[_trailTop];
+        }
+        _singlesTop = 0;
+        for (int nn = 0; nn < _dirtyUnits.length; nn++)
+            _dirtyUnits[nn] = 0;
+    }
+
+    /**
+     * Search below the current, already propagated, state.  Unless a
+     * solution is found, the state is the same on return.  Sets _cutoff
+     * and gives up if the budget of nodes runs out.
+     *
+     * @return true if a solution was found; it is left in _grid
+     */
+    private boolean search() {
+        int cell = pickCell();
+        if (cell < 0)
+            return true;
+        if (_nodes >= _nodeLimit) {
+            _cutoff = true;
+            return false;
+        }
+
+        // branch on the cells a value can go to in a unit instead, if
+        // there are no more of them than the cell has values
+        int mark = _trailTop;
+        if (pickPlace(Long.bitCount(_remains[cell]) + 1)) {
+            long bit = 1L << (_pickVal - 1);
+            int[] cells = _geometry.getUnitCells(_pickUnit);
+            int val = _pickVal;
+            int start = _random.nextInt(cells.length);
+            for (int nn = 0; nn < cells.length; nn++) {
+                int other = cells[(start + nn) % cells.length];
+                if (_grid[other] != 0 || (_remains[other] & bit) == 0)
+                    continue;
+                _nodes++;
+                if (place(other, val) && propagate() && search())
+                    return true;
+                undo(mark);
+                if (_cutoff)
+                    return false;
+            }
+            return false;
+        }
+
+        // try the values from a random one up, then the ones below it
+        long remains = _remains[cell];
+        long high = remains & (-1L << _random.nextInt(_geometry.getSize()));
+        for (int pass = 0; pass < 2; pass++) {
+            long values = pass == 0 ? high : remains & ~high;
+            for (; values != 0; values &= values - 1) {
+                _nodes++;
+                if (place(cell, Long.numberOfTrailingZeros(values) + 1) && propagate()
+                        && search())
+                    return true;
+                undo(mark);
+                if (_cutoff)
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the open cell with the fewest remains, or -1 if none is open
+     */
+    private int pickCell() {
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        int start = _random.nextInt(_cells);
+        for (int nn = 0; nn < _cells; nn++) {
+            int cell = start + nn < _cells ? start + nn : start + nn - _cells;
+            if (_grid[cell] != 0)
+                continue;
+            int count = Long.bitCount(_remains[cell]);
+            if (count < bestCount) {
+                best = cell;
+                bestCount = count;
+                if (count <= 2)
+                    return best;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the unplaced value with the fewest cells left in some unit, if
+     * that is fewer than limit, leaving them in _pickUnit and _pickVal.
+     *
+     * @return true if one was found
+     */
+    private boolean pickPlace(int limit) {
+        int best = limit;
+        int start = _random.nextInt(_free.length);
+        for (int kk = 0; kk < _free.length; kk++) {
+            int unit = start + kk < _free.length ? start + kk : start + kk - _free.length;
+            int[] cells = _geometry.getUnitCells(unit);
+            for (long free = _free[unit]; free != 0; free &= free - 1) {
+                long bit = free & -free;
+                int count = 0;
+                for (int nn = 0; nn < cells.length && count < best; nn++)
+                    if (_grid[cells[nn]] == 0 && (_remains[cells[nn]] & bit) != 0)
+                        count++;
+                if (count < best) {
+                    best = count;
+                    _pickUnit = unit;
+                    _pickVal = Long.numberOfTrailingZeros(bit) + 1;
+                    if (count <= 2)
+                        return true;
+                }
+            }
+        }
+        return best < limit;
+    }
+}